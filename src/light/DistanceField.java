@@ -0,0 +1,336 @@
+package light;
+
+import java.awt.geom.Line2D;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import utils.GraphicsUtils;
+
+/**
+ * A distance field of all occluders over the lightmap grid, used to draw soft shadows by sphere tracing from each pixel
+ * towards a light. Each cell stores the distance in pixels to the nearest occluded cell, or 0 inside an occluder,
+ * clamped to a maximum distance.
+ *
+ * The field is built with the jump flooding algorithm, with each pass parallelized across rows. Because distances are
+ * clamped, a changed occluder can only affect the cells within the maximum distance of it, so only the tiles around
+ * changed occluders are rebuilt.
+ */
+public class DistanceField implements OccluderStore.Listener {
+	/** The size of a tile in cells. */
+	private static final int TILE_SIZE = 32;
+
+	/** The amount of sphere tracing steps per pixel. */
+	private static final int MAX_STEPS = 48;
+
+	private final OccluderStore occluders;
+	private final int cellSize;
+	private final float maxDistance;
+
+	/** The size of the field in cells. */
+	private int columns;
+	private int rows;
+	private float[] distance = new float[0];
+
+	/** The size of the field in tiles, and which tiles have to be rebuilt. */
+	private int tileColumns;
+	private int tileRows;
+	private boolean[] dirty = new boolean[0];
+	private boolean anyDirty;
+
+	/**
+	 * Creates a distance field which follows the changes of the occluders.
+	 *
+	 * @param cellSize
+	 *            the size of a cell in pixels
+	 * @param maxDistance
+	 *            the distance in pixels at which the field is clamped
+	 */
+	public DistanceField(final OccluderStore occluders, final int cellSize, final float maxDistance) {
+		this.occluders = occluders;
+		this.cellSize = cellSize;
+		this.maxDistance = maxDistance;
+		occluders.addListener(this);
+	}
+
+	/**
+	 * Resizes the field to cover width x height pixels if needed, and rebuilds the dirty tiles. Lights drawn on several
+	 * threads may all call this, and only the first rebuilds.
+	 */
+	public synchronized void update(final int width, final int height) {
+		final int newColumns = (width + cellSize - 1) / cellSize;
+		final int newRows = (height + cellSize - 1) / cellSize;
+		if (newColumns != columns || newRows != rows) {
+			columns = newColumns;
+			rows = newRows;
+			distance = new float[columns * rows];
+			tileColumns = (columns + TILE_SIZE - 1) / TILE_SIZE;
+			tileRows = (rows + TILE_SIZE - 1) / TILE_SIZE;
+			dirty = new boolean[tileColumns * tileRows];
+			occludersChanged(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+		}
+
+		if (anyDirty) {
+			rebuild();
+		}
+	}
+
+	/** Marks the tiles within the maximum distance of the changed bounds as dirty. */
+	@Override
+	public void occludersChanged(final float minX, final float minY, final float maxX, final float maxY) {
+		if (dirty.length == 0) {
+			return;
+		}
+
+		final int tilePixels = TILE_SIZE * cellSize;
+		final int fromX = clamp((int) Math.floor((minX - maxDistance) / tilePixels), tileColumns);
+		final int fromY = clamp((int) Math.floor((minY - maxDistance) / tilePixels), tileRows);
+		final int toX = clamp((int) Math.floor((maxX + maxDistance) / tilePixels), tileColumns);
+		final int toY = clamp((int) Math.floor((maxY + maxDistance) / tilePixels), tileRows);
+		for (int ty = fromY; ty <= toY; ty++) {
+			for (int tx = fromX; tx <= toX; tx++) {
+				dirty[ty * tileColumns + tx] = true;
+				anyDirty = true;
+			}
+		}
+	}
+
+	/** Returns the distance in pixels from the point to the nearest occluder, clamped to the maximum distance. */
+	public float sample(final float x, final float y) {
+		final int column = (int) (x / cellSize);
+		final int row = (int) (y / cellSize);
+		if (x < 0 || y < 0 || column >= columns || row >= rows) {
+			return maxDistance;
+		}
+		return distance[row * columns + column];
+	}
+
+	/**
+	 * Blits the light's texture into the target pixels, with the alpha of each texel scaled by a soft shadow factor
+	 * found by sphere tracing towards the light. Rows are drawn in parallel.
+	 *
+	 * @param sourceRadius
+	 *            the radius of the light's source, which sets the width of the penumbra
+	 * @param pixels
+	 *            the INT_ARGB_PRE pixels of the target
+	 * @param width
+	 *            the width of the target
+	 * @param height
+	 *            the height of the target
+	 */
+	public void draw(final Light light, final float sourceRadius, final int[] pixels, final int width, final int height) {
+		final int size = light.image.getWidth();
+		final int[] texture = light.getPixels();
+		final float lightX = light.getX();
+		final float lightY = light.getY();
+		final int x = (int) (lightX - light.getRadius());
+		final int y = (int) (lightY - light.getRadius());
+		final int minX = Math.max(0, x);
+		final int maxX = Math.min(width, x + size);
+		final float intensity = light.getIntensity();
+
+		IntStream.range(Math.max(0, y), Math.min(height, y + size)).parallel().forEach(j -> {
+			final int offset = j * width;
+			final int textureOffset = (j - y) * size - x;
+			for (int i = minX; i < maxX; i++) {
+				final int src = texture[textureOffset + i];
+				if (src >>> 24 == 0) {
+					continue;
+				}
+
+				final float visibility = trace(i + 0.5f, j + 0.5f, lightX, lightY, sourceRadius);
+				final int lit = (int) (255 * visibility * intensity);
+				if (lit != 0) {
+					pixels[offset + i] = GraphicsUtils.blendLight(pixels[offset + i], src, lit);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sphere traces from the point towards the light, and returns how much of the light's source is visible, from 0 to
+	 * 1. The closer the ray passes an occluder relative to the width of the light's cone at that point, the darker the
+	 * penumbra.
+	 */
+	private float trace(final float x, final float y, final float lightX, final float lightY, final float sourceRadius) {
+		final float dx = lightX - x;
+		final float dy = lightY - y;
+		final float length = (float) Math.sqrt(dx * dx + dy * dy);
+		if (sample(x, y) == 0) {
+			return 0;
+		}
+		if (length < 1) {
+			return 1;
+		}
+
+		final float ux = dx / length;
+		final float uy = dy / length;
+		float visibility = 1;
+		float t = cellSize;
+		for (int step = 0; step < MAX_STEPS && t < length; step++) {
+			final float d = sample(x + ux * t, y + uy * t);
+			if (d == 0) {
+				return 0;
+			}
+
+			// the half width of the cone towards the source at distance t
+			final float cone = sourceRadius * t / length;
+			visibility = Math.min(visibility, d / cone);
+			t += Math.max(d, cellSize / 2f);
+		}
+		return Math.min(1, visibility);
+	}
+
+	/**
+	 * Rebuilds the dirty tiles. The occluders within the maximum distance of them are rasterized into a region around
+	 * them, flooded, and the distances of the dirty tiles are copied back.
+	 */
+	private void rebuild() {
+		// the bounds of the dirty tiles, in cells
+		int fromX = columns, fromY = rows, toX = 0, toY = 0;
+		for (int ty = 0; ty < tileRows; ty++) {
+			for (int tx = 0; tx < tileColumns; tx++) {
+				if (dirty[ty * tileColumns + tx]) {
+					fromX = Math.min(fromX, tx * TILE_SIZE);
+					fromY = Math.min(fromY, ty * TILE_SIZE);
+					toX = Math.max(toX, Math.min(columns, (tx + 1) * TILE_SIZE));
+					toY = Math.max(toY, Math.min(rows, (ty + 1) * TILE_SIZE));
+				}
+			}
+		}
+
+		// grow the region so every occluder which can affect the dirty tiles is in it
+		final int margin = (int) Math.ceil(maxDistance / cellSize);
+		final int regionX = Math.max(0, fromX - margin);
+		final int regionY = Math.max(0, fromY - margin);
+		final int regionWidth = Math.min(columns, toX + margin) - regionX;
+		final int regionHeight = Math.min(rows, toY + margin) - regionY;
+
+		int[] seeds = new int[regionWidth * regionHeight];
+		int[] next = new int[seeds.length];
+		Arrays.fill(seeds, -1);
+		rasterize(seeds, regionX, regionY, regionWidth, regionHeight);
+
+		// jump flooding, starting at the largest step which can matter
+		for (int step = Integer.highestOneBit(Math.max(1, Math.min(margin, Math.max(regionWidth, regionHeight)))); step >= 1; step /= 2) {
+			final int[] src = seeds;
+			final int[] dst = next;
+			final int jump = step;
+			IntStream.range(0, regionHeight).parallel().forEach(row -> flood(src, dst, row, jump, regionWidth, regionHeight));
+			next = seeds;
+			seeds = dst;
+		}
+
+		// copy the distances of the dirty tiles back
+		final int[] result = seeds;
+		final int firstColumn = fromX;
+		final int lastColumn = toX;
+		IntStream.range(fromY, toY).parallel().forEach(row -> copyRow(result, row, firstColumn, lastColumn, regionX, regionY, regionWidth));
+
+		Arrays.fill(dirty, false);
+		anyDirty = false;
+	}
+
+	/** Turns the seeds of the dirty cells of a row into distances. */
+	private void copyRow(final int[] seeds, final int row, final int fromX, final int toX, final int regionX, final int regionY, final int regionWidth) {
+		final int ty = row / TILE_SIZE;
+		for (int column = fromX; column < toX; column++) {
+			if (!dirty[ty * tileColumns + column / TILE_SIZE]) {
+				continue;
+			}
+
+			final int seed = seeds[(row - regionY) * regionWidth + column - regionX];
+			float d = maxDistance;
+			if (seed >= 0) {
+				final int sx = seed % regionWidth - (column - regionX);
+				final int sy = seed / regionWidth - (row - regionY);
+				d = Math.min(maxDistance, (float) Math.sqrt(sx * sx + sy * sy) * cellSize);
+			}
+			distance[row * columns + column] = d;
+		}
+	}
+
+	/** Marks every cell of the region whose center is inside an occluder as its own seed. */
+	private void rasterize(final int[] seeds, final int regionX, final int regionY, final int regionWidth, final int regionHeight) {
+		final float left = regionX * cellSize;
+		final float top = regionY * cellSize;
+		final float right = (regionX + regionWidth) * cellSize;
+		final float bottom = (regionY + regionHeight) * cellSize;
+
+		for (int i = 0; i < occluders.size(); i++) {
+			if (occluders.getMaxX(i) < left || occluders.getMinX(i) > right || occluders.getMaxY(i) < top || occluders.getMinY(i) > bottom) {
+				continue;
+			}
+
+			final int x0 = Math.max(regionX, (int) Math.floor(occluders.getMinX(i) / cellSize));
+			final int y0 = Math.max(regionY, (int) Math.floor(occluders.getMinY(i) / cellSize));
+			final int x1 = Math.min(regionX + regionWidth - 1, (int) Math.floor(occluders.getMaxX(i) / cellSize));
+			final int y1 = Math.min(regionY + regionHeight - 1, (int) Math.floor(occluders.getMaxY(i) / cellSize));
+			for (int cy = y0; cy <= y1; cy++) {
+				for (int cx = x0; cx <= x1; cx++) {
+					if (covers(i, cx, cy)) {
+						final int local = (cy - regionY) * regionWidth + cx - regionX;
+						seeds[local] = local;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns whether the occluder covers the center of the cell. Segments have no area, so they cover every cell they
+	 * pass through, which keeps them from leaking light between cells.
+	 */
+	private boolean covers(final int index, final int column, final int row) {
+		final float x = (column + 0.5f) * cellSize;
+		final float y = (row + 0.5f) * cellSize;
+		if (occluders.getType(index) != OccluderStore.SEGMENT) {
+			return occluders.contains(index, x, y);
+		}
+
+		final float[] vertexX = occluders.getVertexX();
+		final float[] vertexY = occluders.getVertexY();
+		final int start = occluders.getOffset(index);
+		return Line2D.ptSegDistSq(vertexX[start], vertexY[start], vertexX[start + 1], vertexY[start + 1], x, y) <= cellSize * cellSize / 2f;
+	}
+
+	/** One jump flooding pass over a row: each cell takes the nearest seed among its neighbors at step distance. */
+	private static void flood(final int[] src, final int[] dst, final int row, final int step, final int width, final int height) {
+		for (int column = 0; column < width; column++) {
+			int best = src[row * width + column];
+			int bestDistSq = best < 0 ? Integer.MAX_VALUE : distSq(best, column, row, width);
+
+			for (int dy = -step; dy <= step; dy += step) {
+				final int y = row + dy;
+				if (y < 0 || y >= height) {
+					continue;
+				}
+				for (int dx = -step; dx <= step; dx += step) {
+					final int x = column + dx;
+					if (x < 0 || x >= width || dx == 0 && dy == 0) {
+						continue;
+					}
+
+					final int seed = src[y * width + x];
+					if (seed >= 0) {
+						final int d = distSq(seed, column, row, width);
+						if (d < bestDistSq) {
+							bestDistSq = d;
+							best = seed;
+						}
+					}
+				}
+			}
+			dst[row * width + column] = best;
+		}
+	}
+
+	private static int distSq(final int seed, final int column, final int row, final int width) {
+		final int dx = seed % width - column;
+		final int dy = seed / width - row;
+		return dx * dx + dy * dy;
+	}
+
+	private static int clamp(final int tile, final int tiles) {
+		return Math.max(0, Math.min(tiles - 1, tile));
+	}
+}
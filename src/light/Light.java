@@ -7,6 +7,7 @@ import java.awt.RadialGradientPaint;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 
+import utils.AbstractFilter;
 import utils.GraphicsUtils;
 import utils.Vec2D;
 
@@ -20,9 +21,16 @@ public class Light {
 	private final float radius;
 	Color color;
 
+	/** The pixels of the image, grabbed the first time they are needed. */
+	private int[] pixels;
+
+	/** How strongly the image is drawn, from 0 to 1, scaling its alpha. */
+	private float intensity = 1;
+
 	public Light(final Color c, final Vec2D position, final float radius) {
 		super();
-		image = GraphicsUtils.toCompatibleImage(new BufferedImage((int) radius * 2, (int) radius * 2, BufferedImage.TYPE_INT_ARGB));
+		// premultiplied like the lightmap, so neither the blits nor Java2D convert it when drawing
+		image = new BufferedImage((int) radius * 2, (int) radius * 2, BufferedImage.TYPE_INT_ARGB_PRE);
 
 		final Graphics2D g = (Graphics2D) image.getGraphics();
 		g.setPaint(new RadialGradientPaint(new Rectangle2D.Double(0, 0, radius * 2, radius * 2), SIZE_FRACTION, new Color[] { c, NULL_COLOR }, CycleMethod.NO_CYCLE));
@@ -46,6 +54,15 @@ public class Light {
 		this.y = y;
 	}
 
+	public float getIntensity() {
+		return intensity;
+	}
+
+	/** Sets how strongly the light is drawn, from 0 to 1, without redrawing its image. */
+	public void setIntensity(final float intensity) {
+		this.intensity = intensity;
+	}
+
 	public float getRadius() {
 		return radius;
 	}
@@ -58,6 +75,46 @@ public class Light {
 		return new Vec2D(x, y);
 	}
 
+	/** Returns the INT_ARGB_PRE pixels of the light's image, which must not be modified. */
+	public int[] getPixels() {
+		if (pixels == null) {
+			pixels = AbstractFilter.getPixels(image, 0, 0, image.getWidth(), image.getHeight(), null);
+		}
+		return pixels;
+	}
+
+	/**
+	 * Blits the image into the target pixels with nothing in the way, scaled by the intensity.
+	 *
+	 * @param pixels
+	 *            the INT_ARGB_PRE pixels of the target
+	 */
+	public void blit(final int[] pixels, final int width, final int height) {
+		final int[] texture = getPixels();
+		final int textureWidth = image.getWidth();
+		final int left = (int) (x - radius);
+		final int top = (int) (y - radius);
+		final int minX = Math.max(0, left);
+		final int minY = Math.max(0, top);
+		final int maxX = Math.min(width, left + textureWidth);
+		final int maxY = Math.min(height, top + image.getHeight());
+		final int coverage = Math.round(intensity * 255);
+		if (coverage == 0) {
+			return;
+		}
+
+		for (int j = minY; j < maxY; j++) {
+			final int offset = j * width;
+			final int textureOffset = (j - top) * textureWidth - left;
+			for (int i = minX; i < maxX; i++) {
+				final int src = texture[textureOffset + i];
+				if (src != 0) {
+					pixels[offset + i] = GraphicsUtils.blendLight(pixels[offset + i], src, coverage);
+				}
+			}
+		}
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -0,0 +1,395 @@
+package light;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Animates many lights at once. The motion and intensity curves of every light are kept in primitive arrays, one per
+ * parameter, and each tick computes the new positions and intensities of all lights in a few flat loops, split over
+ * several threads when there are many lights. Only then are the lights which actually moved given their new position,
+ * so a light standing still keeps its shadows.
+ *
+ * A light can orbit a point or follow a looping path at a constant speed, and its intensity can flicker and pulse.
+ * Colors aren't animated: the color of a light is baked into the gradient texture of each of its sub-lights, and every
+ * draw path blits those textures as they are, so changing it would mean redrawing them all. Dimming a light through
+ * its intensity only scales their alpha. Animated lights are expected to be dynamic, since every change of a static
+ * light redraws its part of the {@link StaticLightLayer}.
+ */
+public class LightAnimator {
+	/** The motions. */
+	public static final byte NONE = 0;
+	public static final byte ORBIT = 1;
+	public static final byte PATH = 2;
+
+	/** The least amount of lights each thread animates, below which one thread animates all of them. */
+	private static final int LIGHTS_PER_TASK = 1024;
+
+	private final List<SmoothLight> lights = new ArrayList<>();
+	private int count;
+
+	/** The seconds since the start, as a double so the curves stay smooth however long the game runs. */
+	private double time;
+
+	private byte[] motion = new byte[16];
+
+	/** The center of the orbit, or where a light without motion stays. */
+	private float[] baseX = new float[16];
+	private float[] baseY = new float[16];
+
+	/** The radius in pixels, speed in radians per second and starting angle of the orbit. */
+	private float[] orbitRadius = new float[16];
+	private float[] orbitSpeed = new float[16];
+	private float[] orbitPhase = new float[16];
+
+	/**
+	 * Each path owns pathCapacities[i] points from pathStarts[i] in the point arrays, uses the first pathCounts[i] of
+	 * them, and moves at pathSpeeds[i].
+	 */
+	private int[] pathStarts = new int[16];
+	private int[] pathCounts = new int[16];
+	private int[] pathCapacities = new int[16];
+	private float[] pathSpeeds = new float[16];
+
+	/** The points of all paths, and the distance along its path to each point, ending with the loop's length. */
+	private float[] pointX = new float[64];
+	private float[] pointY = new float[64];
+	private float[] pointDistance = new float[64];
+	private int pointCount;
+
+	/** The intensity without flicker and pulse, the depth and rate of each. */
+	private float[] baseIntensity = new float[16];
+	private float[] flickerAmount = new float[16];
+	private float[] flickerRate = new float[16];
+	private float[] pulseAmount = new float[16];
+	private float[] pulseRate = new float[16];
+
+	/** The results of the last tick, and what was given to the lights. */
+	private float[] x = new float[16];
+	private float[] y = new float[16];
+	private float[] intensity = new float[16];
+	private float[] appliedX = new float[16];
+	private float[] appliedY = new float[16];
+	private float[] appliedIntensity = new float[16];
+
+	/** The lights which moved or changed intensity in the last tick. */
+	private int[] changed = new int[16];
+	private int changedCount;
+
+	/**
+	 * Starts animating the light. It stays where it is with its current intensity until given a motion or curve.
+	 *
+	 * @return the index of the light in the animator
+	 */
+	public int add(final SmoothLight light) {
+		if (count == motion.length) {
+			grow(count * 2);
+		}
+
+		final int i = count++;
+		lights.add(light);
+		motion[i] = NONE;
+		baseX[i] = appliedX[i] = x[i] = light.getCenter().getX();
+		baseY[i] = appliedY[i] = y[i] = light.getCenter().getY();
+		baseIntensity[i] = appliedIntensity[i] = intensity[i] = light.getIntensity();
+		flickerAmount[i] = pulseAmount[i] = 0;
+		pathCapacities[i] = 0;
+		return i;
+	}
+
+	/**
+	 * Makes the light circle around a point.
+	 *
+	 * @param speed
+	 *            the angular speed in radians per second, negative for clockwise
+	 * @param phase
+	 *            the angle at time 0
+	 */
+	public void setOrbit(final int index, final float centerX, final float centerY, final float radius, final float speed, final float phase) {
+		motion[index] = ORBIT;
+		baseX[index] = centerX;
+		baseY[index] = centerY;
+		orbitRadius[index] = radius;
+		orbitSpeed[index] = speed;
+		orbitPhase[index] = phase;
+	}
+
+	/**
+	 * Makes the light follow a closed path through the first n points of xs and ys, and back to the first. The points
+	 * of its previous path are reused if the new one fits in them.
+	 *
+	 * @param speed
+	 *            the speed in pixels per second
+	 * @throws IllegalArgumentException
+	 *             if n is less than 2, or xs or ys has less than n points
+	 */
+	public void setPath(final int index, final float[] xs, final float[] ys, final int n, final float speed) {
+		if (n < 2) {
+			throw new IllegalArgumentException("a path needs at least 2 points, got " + n);
+		}
+		if (xs.length < n || ys.length < n) {
+			throw new IllegalArgumentException("xs and ys must have a length >= n");
+		}
+
+		if (pathCapacities[index] < n + 1) {
+			if (pointCount + n + 1 > pointX.length) {
+				compactPoints(index, n + 1);
+			}
+			pathStarts[index] = pointCount;
+			pathCapacities[index] = n + 1;
+			pointCount += n + 1;
+		}
+
+		// the first point is repeated at the end to close the loop
+		final int start = pathStarts[index];
+		float distance = 0;
+		for (int k = 0; k <= n; k++) {
+			final int p = start + k;
+			pointX[p] = xs[k % n];
+			pointY[p] = ys[k % n];
+			if (k > 0) {
+				distance += (float) Math.hypot(pointX[p] - pointX[p - 1], pointY[p] - pointY[p - 1]);
+			}
+			pointDistance[p] = distance;
+		}
+
+		motion[index] = PATH;
+		pathCounts[index] = n + 1;
+		pathSpeeds[index] = speed;
+	}
+
+	/**
+	 * Copies the points of the paths still followed to the start of new point arrays, with room for at least the given
+	 * amount more, so the points of replaced and stopped paths are dropped.
+	 *
+	 * @param replaced
+	 *            the light whose path is being replaced, whose points are dropped too
+	 */
+	private void compactPoints(final int replaced, final int more) {
+		int used = 0;
+		for (int i = 0; i < count; i++) {
+			if (motion[i] == PATH && i != replaced) {
+				used += pathCounts[i];
+			}
+		}
+
+		final int size = Math.max(pointX.length, (used + more) * 2);
+		final float[] newX = new float[size];
+		final float[] newY = new float[size];
+		final float[] newDistance = new float[size];
+		pointCount = 0;
+		for (int i = 0; i < count; i++) {
+			if (motion[i] != PATH || i == replaced) {
+				pathCapacities[i] = 0;
+				continue;
+			}
+			System.arraycopy(pointX, pathStarts[i], newX, pointCount, pathCounts[i]);
+			System.arraycopy(pointY, pathStarts[i], newY, pointCount, pathCounts[i]);
+			System.arraycopy(pointDistance, pathStarts[i], newDistance, pointCount, pathCounts[i]);
+			pathStarts[i] = pointCount;
+			pathCapacities[i] = pathCounts[i];
+			pointCount += pathCounts[i];
+		}
+		pointX = newX;
+		pointY = newY;
+		pointDistance = newDistance;
+	}
+
+	/** Stops the light where it is. */
+	public void stop(final int index) {
+		motion[index] = NONE;
+		baseX[index] = x[index];
+		baseY[index] = y[index];
+	}
+
+	/**
+	 * Makes the intensity flicker randomly.
+	 *
+	 * @param amount
+	 *            how far the intensity drops at most, as a fraction of its base
+	 * @param rate
+	 *            how many times per second it changes direction
+	 */
+	public void setFlicker(final int index, final float amount, final float rate) {
+		flickerAmount[index] = amount;
+		flickerRate[index] = rate;
+	}
+
+	/**
+	 * Makes the intensity pulse smoothly.
+	 *
+	 * @param amount
+	 *            how far the intensity drops at most, as a fraction of its base
+	 * @param rate
+	 *            the pulses per second
+	 */
+	public void setPulse(final int index, final float amount, final float rate) {
+		pulseAmount[index] = amount;
+		pulseRate[index] = rate;
+	}
+
+	/** Sets the intensity before flicker and pulse, from 0 to 1. */
+	public void setBaseIntensity(final int index, final float intensity) {
+		baseIntensity[index] = intensity;
+	}
+
+	/**
+	 * Advances every light by the time, and gives the lights which changed their new position and intensity.
+	 *
+	 * @param deltaTime
+	 *            the time since the last tick, in seconds
+	 * @return the amount of lights which moved
+	 */
+	public int update(final float deltaTime) {
+		time += deltaTime;
+
+		if (count > LIGHTS_PER_TASK) {
+			final int tasks = (count + LIGHTS_PER_TASK - 1) / LIGHTS_PER_TASK;
+			IntStream.range(0, tasks).parallel().forEach(t -> animate(t * LIGHTS_PER_TASK, Math.min(count, (t + 1) * LIGHTS_PER_TASK)));
+		} else {
+			animate(0, count);
+		}
+
+		int moved = 0;
+		changedCount = 0;
+		for (int i = 0; i < count; i++) {
+			final boolean hasMoved = x[i] != appliedX[i] || y[i] != appliedY[i];
+			if (hasMoved) {
+				lights.get(i).setPosition(x[i], y[i]);
+				appliedX[i] = x[i];
+				appliedY[i] = y[i];
+				moved++;
+			}
+			final boolean hasDimmed = intensity[i] != appliedIntensity[i];
+			if (hasDimmed) {
+				lights.get(i).setIntensity(intensity[i]);
+				appliedIntensity[i] = intensity[i];
+			}
+			if (hasMoved || hasDimmed) {
+				changed[changedCount++] = i;
+			}
+		}
+		return moved;
+	}
+
+	/** Computes the positions and intensities of the lights from the first to the last, exclusive. */
+	private void animate(final int from, final int to) {
+		final double t = time;
+
+		for (int i = from; i < to; i++) {
+			if (motion[i] == ORBIT) {
+				final double angle = orbitPhase[i] + orbitSpeed[i] * t;
+				x[i] = baseX[i] + (float) Math.cos(angle) * orbitRadius[i];
+				y[i] = baseY[i] + (float) Math.sin(angle) * orbitRadius[i];
+			} else if (motion[i] == PATH) {
+				followPath(i, t);
+			} else {
+				x[i] = baseX[i];
+				y[i] = baseY[i];
+			}
+		}
+
+		for (int i = from; i < to; i++) {
+			// smooth noise, between two random values picked from the light and the step of time
+			final double steps = t * flickerRate[i];
+			final int step = (int) Math.floor(steps);
+			final float fraction = (float) (steps - step);
+			final float noise = hash(i, step) + (hash(i, step + 1) - hash(i, step)) * fraction * fraction * (3 - 2 * fraction);
+			final float pulse = 0.5f - 0.5f * (float) Math.cos(t * pulseRate[i] * 2 * Math.PI);
+			final float value = baseIntensity[i] * (1 - flickerAmount[i] * noise) * (1 - pulseAmount[i] * pulse);
+			intensity[i] = Math.max(0, Math.min(1, value));
+		}
+	}
+
+	/** Places the light at its distance along its path at the time. */
+	private void followPath(final int i, final double t) {
+		final int start = pathStarts[i];
+		final int end = start + pathCounts[i] - 1;
+		final float length = pointDistance[end];
+		if (length == 0) {
+			x[i] = pointX[start];
+			y[i] = pointY[start];
+			return;
+		}
+
+		float distance = (float) (pathSpeeds[i] * t % length);
+		if (distance < 0) {
+			distance += length;
+		}
+
+		int p = start;
+		while (p < end - 1 && pointDistance[p + 1] < distance) {
+			p++;
+		}
+		final float segment = pointDistance[p + 1] - pointDistance[p];
+		final float along = segment == 0 ? 0 : (distance - pointDistance[p]) / segment;
+		x[i] = pointX[p] + (pointX[p + 1] - pointX[p]) * along;
+		y[i] = pointY[p] + (pointY[p + 1] - pointY[p]) * along;
+	}
+
+	/** Returns a random value from 0 to 1 which only depends on the light and the step. */
+	private static float hash(final int light, final int step) {
+		int h = light * 0x9E3779B1 + step * 0x85EBCA6B;
+		h ^= h >>> 16;
+		h *= 0x7FEB352D;
+		h ^= h >>> 15;
+		return (h >>> 8) / (float) (1 << 24);
+	}
+
+	private void grow(final int size) {
+		motion = Arrays.copyOf(motion, size);
+		baseX = Arrays.copyOf(baseX, size);
+		baseY = Arrays.copyOf(baseY, size);
+		orbitRadius = Arrays.copyOf(orbitRadius, size);
+		orbitSpeed = Arrays.copyOf(orbitSpeed, size);
+		orbitPhase = Arrays.copyOf(orbitPhase, size);
+		pathStarts = Arrays.copyOf(pathStarts, size);
+		pathCounts = Arrays.copyOf(pathCounts, size);
+		pathCapacities = Arrays.copyOf(pathCapacities, size);
+		pathSpeeds = Arrays.copyOf(pathSpeeds, size);
+		baseIntensity = Arrays.copyOf(baseIntensity, size);
+		flickerAmount = Arrays.copyOf(flickerAmount, size);
+		flickerRate = Arrays.copyOf(flickerRate, size);
+		pulseAmount = Arrays.copyOf(pulseAmount, size);
+		pulseRate = Arrays.copyOf(pulseRate, size);
+		x = Arrays.copyOf(x, size);
+		y = Arrays.copyOf(y, size);
+		intensity = Arrays.copyOf(intensity, size);
+		appliedX = Arrays.copyOf(appliedX, size);
+		appliedY = Arrays.copyOf(appliedY, size);
+		appliedIntensity = Arrays.copyOf(appliedIntensity, size);
+		changed = Arrays.copyOf(changed, size);
+	}
+
+	/** Returns the amount of animated lights. */
+	public int size() {
+		return count;
+	}
+
+	public SmoothLight getLight(final int index) {
+		return lights.get(index);
+	}
+
+	/** Returns the amount of lights which moved or changed intensity in the last tick. */
+	public int getChangedCount() {
+		return changedCount;
+	}
+
+	/** Returns the index of the i-th light which moved or changed intensity in the last tick. */
+	public int getChanged(final int i) {
+		return changed[i];
+	}
+
+	public float getX(final int index) {
+		return x[index];
+	}
+
+	public float getY(final int index) {
+		return y[index];
+	}
+
+	public float getIntensity(final int index) {
+		return intensity[index];
+	}
+}
@@ -0,0 +1,355 @@
+package light;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers how lit a point is and whether a light can see it, for gameplay code such as AI, without reading back the
+ * lightmap. The render thread {@link #publish(List) publishes} a snapshot of the lights and their shadow quads after
+ * cutting them, and any other thread can then query the latest snapshot. A snapshot is never modified once published,
+ * so queries need no locking and always see one consistent frame.
+ *
+ * Lights whose shadow mode cuts sub-lights (AREA and MASK) reuse their quads, so the visibility is the part of the
+ * sub-lights which see the point. The other modes reuse the hard shadow quads their cut keeps for the base light.
+ * Lights whose last cut found them {@link LightVisibility#OCCLUDED} light nothing, and
+ * {@link LightVisibility#UNSHADOWED} ones have no quads.
+ *
+ * The quads of a light are only copied again when it was cut since the last snapshot, the copies being shared by the
+ * snapshots in between.
+ */
+public class LightQuery {
+	/** The size of a cell of the grid which indexes the lights of a snapshot. */
+	private static final int CELL_SIZE = 64;
+
+	private volatile Snapshot snapshot = Snapshot.empty();
+
+	/** The copied shadows of each light, only used by the render thread. */
+	private final Map<SmoothLight, Entry> entries = new IdentityHashMap<>();
+
+	/**
+	 * Publishes a snapshot of the lights, with their shadows from their last cuts. Must be called from the render
+	 * thread.
+	 */
+	public void publish(final List<SmoothLight> lights) {
+		final Snapshot next = new Snapshot(lights.size());
+
+		for (final Entry entry : entries.values()) {
+			entry.seen = false;
+		}
+		for (int i = 0; i < lights.size(); i++) {
+			final SmoothLight light = lights.get(i);
+			final Light center = light.center;
+			next.lightX[i] = center.getX();
+			next.lightY[i] = center.getY();
+			next.radius[i] = center.getRadius();
+			next.intensities[i] = center.getIntensity();
+			next.textures[i] = center.getPixels();
+			next.textureSizes[i] = center.image.getWidth();
+
+			Entry entry = entries.get(light);
+			if (entry == null) {
+				entry = new Entry();
+				entries.put(light, entry);
+			}
+			if (entry.shadows == null || entry.cutCount != light.cutCount) {
+				entry.shadows = copyShadows(light);
+				entry.cutCount = light.cutCount;
+			}
+			entry.seen = true;
+			next.shadows[i] = entry.shadows;
+		}
+		entries.values().removeIf(entry -> !entry.seen);
+		next.buildGrid();
+
+		snapshot = next;
+	}
+
+	/** Returns the latest published snapshot, which stays valid however long it is used. */
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/** Copies the shadows of the light's last cut. */
+	private static Shadows copyShadows(final SmoothLight light) {
+		if (light.getVisibility() == LightVisibility.OCCLUDED) {
+			return Shadows.NONE;
+		} else if (light.getVisibility() == LightVisibility.UNSHADOWED) {
+			return Shadows.UNSHADOWED;
+		}
+
+		final boolean hasSubLights = light.getShadowMode() == ShadowMode.AREA || light.getShadowMode() == ShadowMode.MASK;
+		final int samples = hasSubLights ? light.lights.size() : 1;
+		int quads = 0;
+		for (int s = 0; s < samples; s++) {
+			quads += (hasSubLights ? light.shadowQuads.get(s) : light.centerQuads).size();
+		}
+
+		final Shadows shadows = new Shadows(samples, quads);
+		for (int s = 0; s < samples; s++) {
+			if (hasSubLights) {
+				shadows.add(s, light.lights.get(s), light.shadowQuads.get(s));
+			} else {
+				shadows.add(s, light.center, light.centerQuads);
+			}
+		}
+		return shadows;
+	}
+
+	/** What is remembered about one light. */
+	private static final class Entry {
+		/** The copy of the shadows, and the cut it was copied from. */
+		Shadows shadows;
+		int cutCount;
+		/** Whether the light was still in the list this frame, to forget the removed ones. */
+		boolean seen;
+	}
+
+	/**
+	 * The shadow quads of the samples of one light, never modified once copied. Each sample owns the quads from
+	 * quadStarts[s] to quadStarts[s + 1], with the bounds of each quad.
+	 */
+	private static final class Shadows {
+		/** The shadows of an occluded light, which has no samples and sees nothing. */
+		static final Shadows NONE = new Shadows(0, 0);
+		/** The shadows of an unshadowed light, one sample which sees everything. */
+		static final Shadows UNSHADOWED = new Shadows(1, 0);
+
+		private final int sampleCount;
+		private final int[] quadStarts;
+		private final float[] coords;
+		private final float[] quadMinX;
+		private final float[] quadMinY;
+		private final float[] quadMaxX;
+		private final float[] quadMaxY;
+
+		private Shadows(final int sampleCount, final int quadCount) {
+			this.sampleCount = sampleCount;
+			quadStarts = new int[sampleCount + 1];
+			coords = new float[quadCount * ShadowQuads.STRIDE];
+			quadMinX = new float[quadCount];
+			quadMinY = new float[quadCount];
+			quadMaxX = new float[quadCount];
+			quadMaxY = new float[quadCount];
+		}
+
+		/** Copies the quads of the sample after those of the sample before, with their bounds clipped to its light. */
+		private void add(final int sample, final Light light, final ShadowQuads quads) {
+			final int first = quadStarts[sample];
+			quadStarts[sample + 1] = first + quads.size();
+			System.arraycopy(quads.getCoords(), 0, coords, first * ShadowQuads.STRIDE, quads.size() * ShadowQuads.STRIDE);
+
+			for (int q = first; q < first + quads.size(); q++) {
+				float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+				float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+				for (int k = q * ShadowQuads.STRIDE; k < (q + 1) * ShadowQuads.STRIDE; k += 2) {
+					minX = Math.min(minX, coords[k]);
+					minY = Math.min(minY, coords[k + 1]);
+					maxX = Math.max(maxX, coords[k]);
+					maxY = Math.max(maxY, coords[k + 1]);
+				}
+				quadMinX[q] = Math.max(minX, light.getX() - light.getRadius());
+				quadMinY[q] = Math.max(minY, light.getY() - light.getRadius());
+				quadMaxX[q] = Math.min(maxX, light.getX() + light.getRadius());
+				quadMaxY[q] = Math.min(maxY, light.getY() + light.getRadius());
+			}
+		}
+
+		/** Returns the part of the samples which see the point. */
+		private float getVisibility(final float x, final float y) {
+			if (sampleCount == 0) {
+				return 0;
+			}
+
+			int visible = 0;
+			for (int s = 0; s < sampleCount; s++) {
+				if (!isShadowed(s, x, y)) {
+					visible++;
+				}
+			}
+			return visible / (float) sampleCount;
+		}
+
+		private boolean isShadowed(final int sample, final float x, final float y) {
+			for (int q = quadStarts[sample]; q < quadStarts[sample + 1]; q++) {
+				if (x >= quadMinX[q] && x <= quadMaxX[q] && y >= quadMinY[q] && y <= quadMaxY[q] && ShadowQuads.contains(coords, q * ShadowQuads.STRIDE, x, y)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * The lights and shadow quads of one frame. Lights are addressed by their index in the list they were published
+	 * from. Every query method is thread-safe.
+	 */
+	public static final class Snapshot {
+		private final int lightCount;
+
+		/** The base light of each light, with its texture to read the falloff from. */
+		private final float[] lightX;
+		private final float[] lightY;
+		private final float[] radius;
+		private final float[] intensities;
+		private final int[][] textures;
+		private final int[] textureSizes;
+
+		/** The shadows of each light, shared with the other snapshots since its last cut. */
+		private final Shadows[] shadows;
+
+		/** The lights reaching each grid cell, from cellStarts[c] to cellStarts[c + 1] in cellLights. */
+		private int gridX;
+		private int gridY;
+		private int columns;
+		private int rows;
+		private int[] cellStarts;
+		private int[] cellLights;
+
+		private Snapshot(final int lightCount) {
+			this.lightCount = lightCount;
+			lightX = new float[lightCount];
+			lightY = new float[lightCount];
+			radius = new float[lightCount];
+			intensities = new float[lightCount];
+			textures = new int[lightCount][];
+			textureSizes = new int[lightCount];
+			shadows = new Shadows[lightCount];
+		}
+
+		private static Snapshot empty() {
+			final Snapshot empty = new Snapshot(0);
+			empty.buildGrid();
+			return empty;
+		}
+
+		public int getLightCount() {
+			return lightCount;
+		}
+
+		/**
+		 * Returns how lit the point is, as the sum of the alpha of every light there after its falloff and shadows. One
+		 * fully opaque, unshadowed light at its center gives 1.
+		 */
+		public float getIntensity(final float x, final float y) {
+			final int column = (int) Math.floor((x - gridX) / CELL_SIZE);
+			final int row = (int) Math.floor((y - gridY) / CELL_SIZE);
+			if (column < 0 || row < 0 || column >= columns || row >= rows) {
+				return 0;
+			}
+
+			float intensity = 0;
+			final int cell = row * columns + column;
+			for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+				final int light = cellLights[i];
+				final float falloff = falloff(light, x, y);
+				if (falloff > 0) {
+					intensity += falloff * getVisibility(light, x, y);
+				}
+			}
+			return intensity;
+		}
+
+		/**
+		 * Returns the part of the light which reaches the point past the occluders, from 0 to 1, ignoring its
+		 * falloff. Points beyond the light's radius get 0.
+		 */
+		public float getVisibility(final int light, final float x, final float y) {
+			final float dx = x - lightX[light];
+			final float dy = y - lightY[light];
+			if (dx * dx + dy * dy >= radius[light] * radius[light]) {
+				return 0;
+			}
+
+			return shadows[light].getVisibility(x, y);
+		}
+
+		/** Returns whether any part of the light reaches the point. */
+		public boolean canSee(final int light, final float x, final float y) {
+			return getVisibility(light, x, y) > 0;
+		}
+
+		/** Writes the intensity of each of the first n points into out. */
+		public void getIntensities(final float[] xs, final float[] ys, final int n, final float[] out) {
+			for (int i = 0; i < n; i++) {
+				out[i] = getIntensity(xs[i], ys[i]);
+			}
+		}
+
+		/** Writes the visibility of each of the first n points from the light into out. */
+		public void getVisibilities(final int light, final float[] xs, final float[] ys, final int n, final float[] out) {
+			for (int i = 0; i < n; i++) {
+				out[i] = getVisibility(light, xs[i], ys[i]);
+			}
+		}
+
+		/** Writes whether the light can see each of the first n points into out. */
+		public void canSee(final int light, final float[] xs, final float[] ys, final int n, final boolean[] out) {
+			for (int i = 0; i < n; i++) {
+				out[i] = canSee(light, xs[i], ys[i]);
+			}
+		}
+
+		/** Returns the alpha of the light's texture at the point scaled by its intensity, from 0 to 1. */
+		private float falloff(final int light, final float x, final float y) {
+			final int size = textureSizes[light];
+			final int textureX = (int) x - (int) (lightX[light] - radius[light]);
+			final int textureY = (int) y - (int) (lightY[light] - radius[light]);
+			if (textureX < 0 || textureY < 0 || textureX >= size || textureY >= size) {
+				return 0;
+			}
+			return (textures[light][textureY * size + textureX] >>> 24) / 255f * intensities[light];
+		}
+
+		/** Indexes the lights by the grid cells their radius overlaps. */
+		private void buildGrid() {
+			float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+			float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+			for (int i = 0; i < lightCount; i++) {
+				minX = Math.min(minX, lightX[i] - radius[i]);
+				minY = Math.min(minY, lightY[i] - radius[i]);
+				maxX = Math.max(maxX, lightX[i] + radius[i]);
+				maxY = Math.max(maxY, lightY[i] + radius[i]);
+			}
+			if (lightCount == 0) {
+				columns = rows = 0;
+				cellStarts = new int[1];
+				cellLights = new int[0];
+				return;
+			}
+
+			gridX = (int) Math.floor(minX);
+			gridY = (int) Math.floor(minY);
+			columns = (int) Math.ceil((maxX - gridX) / CELL_SIZE) + 1;
+			rows = (int) Math.ceil((maxY - gridY) / CELL_SIZE) + 1;
+
+			// count the lights of each cell, then fill them in
+			cellStarts = new int[columns * rows + 1];
+			for (int pass = 0; pass < 2; pass++) {
+				final int[] filled = pass == 0 ? null : new int[columns * rows];
+				for (int i = 0; i < lightCount; i++) {
+					final int startColumn = (int) ((lightX[i] - radius[i] - gridX) / CELL_SIZE);
+					final int endColumn = (int) ((lightX[i] + radius[i] - gridX) / CELL_SIZE);
+					final int startRow = (int) ((lightY[i] - radius[i] - gridY) / CELL_SIZE);
+					final int endRow = (int) ((lightY[i] + radius[i] - gridY) / CELL_SIZE);
+					for (int row = startRow; row <= endRow; row++) {
+						for (int column = startColumn; column <= endColumn; column++) {
+							final int cell = row * columns + column;
+							if (pass == 0) {
+								cellStarts[cell + 1]++;
+							} else {
+								cellLights[cellStarts[cell] + filled[cell]++] = i;
+							}
+						}
+					}
+				}
+				if (pass == 0) {
+					for (int c = 0; c < columns * rows; c++) {
+						cellStarts[c + 1] += cellStarts[c];
+					}
+					cellLights = new int[cellStarts[columns * rows]];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package light;
+
+/**
+ * What the last cut of a {@link SmoothLight} found about its shadows, which decides how much work drawing it takes.
+ */
+public enum LightVisibility {
+	/** No occluder is within reach, so the light is blitted without any shadows. */
+	UNSHADOWED,
+	/** Some occluders are within reach, and the light is drawn through its shadows. */
+	SHADOWED,
+	/** The whole source of the light is inside an occluder, so it lights nothing and isn't drawn. */
+	OCCLUDED,
+	/** Nothing the light reaches is on the screen, so it isn't drawn. */
+	OFF_SCREEN
+}
@@ -0,0 +1,197 @@
+package light;
+
+import java.util.Arrays;
+
+/**
+ * The data every light needs from each occluder but which doesn't depend on the light: the convex hull of its vertices
+ * with the outward normal of each hull edge, and a bounding circle around its center. It is computed once after the
+ * occluders change and then shared read-only by all lights and their sub-lights, instead of every light scanning every
+ * vertex again.
+ *
+ * The hull vertices are packed like the vertices of the {@link OccluderStore}, counter-clockwise in a y-up frame. The
+ * normal at a hull vertex belongs to the edge from it to the next hull vertex. Circles have no hull.
+ */
+public class OccluderHulls {
+	private final OccluderStore occluders;
+
+	/** The version of the occluders the hulls were built from, or -1 before the first build. */
+	private int version = -1;
+
+	private int[] offsets = new int[0];
+	private int[] counts = new int[0];
+	private float[] hullX = new float[0];
+	private float[] hullY = new float[0];
+	private float[] normalX = new float[0];
+	private float[] normalY = new float[0];
+
+	/** The radius of the bounding circle around the center of each occluder. */
+	private float[] radii = new float[0];
+
+	/** The vertices of the occluder being processed, sorted as keys and then as the chain of the hull. */
+	private long[] keys = new long[0];
+	private float[] chainX = new float[0];
+	private float[] chainY = new float[0];
+
+	/** Creates the hulls of the occluders, built on the first {@link #update()}. */
+	public OccluderHulls(final OccluderStore occluders) {
+		this.occluders = occluders;
+	}
+
+	/** Rebuilds the hulls if the occluders changed since the last update. */
+	public synchronized void update() {
+		if (version == occluders.getVersion()) {
+			return;
+		}
+
+		final int size = occluders.size();
+		if (offsets.length < size) {
+			offsets = new int[size];
+			counts = new int[size];
+			radii = new float[size];
+		}
+
+		int total = 0;
+		for (int i = 0; i < size; i++) {
+			total += occluders.getCount(i);
+		}
+		if (hullX.length < total) {
+			hullX = new float[total];
+			hullY = new float[total];
+			normalX = new float[total];
+			normalY = new float[total];
+		}
+
+		int hullCount = 0;
+		for (int i = 0; i < size; i++) {
+			offsets[i] = hullCount;
+			counts[i] = occluders.getType(i) == OccluderStore.CIRCLE ? 0 : buildHull(i, hullCount);
+			hullCount += counts[i];
+			radii[i] = boundingRadius(i);
+		}
+
+		version = occluders.getVersion();
+	}
+
+	public int getOffset(final int index) {
+		return offsets[index];
+	}
+
+	public int getCount(final int index) {
+		return counts[index];
+	}
+
+	public float[] getHullX() {
+		return hullX;
+	}
+
+	public float[] getHullY() {
+		return hullY;
+	}
+
+	public float[] getNormalX() {
+		return normalX;
+	}
+
+	public float[] getNormalY() {
+		return normalY;
+	}
+
+	/** Returns the radius of the bounding circle around the occluder's center. */
+	public float getRadius(final int index) {
+		return radii[index];
+	}
+
+	/** Returns whether the bounding circle of the occluder at index is within the distance of the point. */
+	public boolean isInReach(final int index, final float x, final float y, final float distance) {
+		final float dx = occluders.getCenterX(index) - x;
+		final float dy = occluders.getCenterY(index) - y;
+		final float reach = distance + radii[index];
+		return dx * dx + dy * dy <= reach * reach;
+	}
+
+	/** Builds the hull of the occluder at index with a monotone chain, starting at offset. Returns its vertex count. */
+	private int buildHull(final int index, final int offset) {
+		final int n = occluders.getCount(index);
+		if (n == 0) {
+			return 0;
+		}
+		if (keys.length < n) {
+			keys = new long[n];
+			chainX = new float[n * 2];
+			chainY = new float[n * 2];
+		}
+
+		// sort by x and then y, packed into one long so no objects are needed
+		final float[] vertexX = occluders.getVertexX();
+		final float[] vertexY = occluders.getVertexY();
+		final int start = occluders.getOffset(index);
+		for (int j = 0; j < n; j++) {
+			// y is flipped to sort as an unsigned low half
+			keys[j] = (long) sortable(vertexX[start + j]) << 32 | (sortable(vertexY[start + j]) ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+		}
+		Arrays.sort(keys, 0, n);
+
+		// the lower chain and then the upper chain, dropping the right turns
+		int k = 0;
+		for (int j = 0; j < n; j++) {
+			k = push(k, 1, keys[j]);
+		}
+		for (int j = n - 2, lower = k; j >= 0; j--) {
+			k = push(k, lower, keys[j]);
+		}
+		// the last point is the first again
+		final int count = Math.max(1, k - 1);
+
+		for (int j = 0; j < count; j++) {
+			hullX[offset + j] = chainX[j];
+			hullY[offset + j] = chainY[j];
+		}
+		for (int j = 0; j < count; j++) {
+			final int next = offset + (j + 1) % count;
+			final float dx = hullX[next] - hullX[offset + j];
+			final float dy = hullY[next] - hullY[offset + j];
+			final float length = (float) Math.sqrt(dx * dx + dy * dy);
+			normalX[offset + j] = length == 0 ? 0 : dy / length;
+			normalY[offset + j] = length == 0 ? 0 : -dx / length;
+		}
+		return count;
+	}
+
+	/** Appends the point of the key to the chain, first popping points which don't make a left turn. */
+	private int push(int k, final int min, final long key) {
+		final float x = fromSortable((int) (key >> 32));
+		final float y = fromSortable((int) key ^ Integer.MIN_VALUE);
+		while (k > min && (chainX[k - 1] - chainX[k - 2]) * (y - chainY[k - 2]) - (chainY[k - 1] - chainY[k - 2]) * (x - chainX[k - 2]) <= 0) {
+			k--;
+		}
+		chainX[k] = x;
+		chainY[k] = y;
+		return k + 1;
+	}
+
+	private float boundingRadius(final int index) {
+		if (occluders.getType(index) == OccluderStore.CIRCLE) {
+			return occluders.getRadius(index);
+		}
+
+		final float centerX = occluders.getCenterX(index);
+		final float centerY = occluders.getCenterY(index);
+		float maxSq = 0;
+		for (int j = offsets[index]; j < offsets[index] + counts[index]; j++) {
+			final float dx = hullX[j] - centerX;
+			final float dy = hullY[j] - centerY;
+			maxSq = Math.max(maxSq, dx * dx + dy * dy);
+		}
+		return (float) Math.sqrt(maxSq);
+	}
+
+	/** Maps the float to an int which sorts the same way. */
+	private static int sortable(final float value) {
+		final int bits = Float.floatToIntBits(value);
+		return bits ^ bits >> 31 & 0x7FFFFFFF;
+	}
+
+	private static float fromSortable(final int sortable) {
+		return Float.intBitsToFloat(sortable ^ sortable >> 31 & 0x7FFFFFFF);
+	}
+}
@@ -0,0 +1,561 @@
+package light;
+
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps a simplified copy of an occluder store for casting shadows. Polygons and boxes which touch or overlap are
+ * unioned, and the union is split back into as few convex pieces as a scan in horizontal slabs finds, dropping the
+ * interior edges and the collinear vertices. A wall built from many small boxes so casts a handful of shadow quads
+ * instead of one per box. Circles and segments are copied unchanged.
+ *
+ * The pieces have to stay convex because silhouettes are found on the convex hull of an occluder, so a concave outline
+ * would shadow its own notches.
+ *
+ * The merge is incremental: only the groups of occluders around the changes since the last {@link #update()} are merged
+ * again. They are found by walking from the changes to every occluder touching them, and on to every occluder touching
+ * those, through a grid of the source occluders.
+ */
+public class OccluderMerger implements OccluderStore.Listener {
+	/** How close two occluders have to be, in pixels, to be merged. */
+	private static final float TOUCH_DISTANCE = 0.5f;
+
+	/** Farther than any occluder, for the bounds of changes which affect everything. */
+	private static final float FAR = 1e9f;
+
+	/** How far two coordinates can be apart and still be considered the same. */
+	private static final float EPSILON = 1e-3f;
+
+	private final OccluderStore source;
+	private final OccluderStore merged = new OccluderStore();
+
+	/** The bounds of each change since the last update, as minX, minY, maxX, maxY. */
+	private float[] changes = { -FAR, -FAR, FAR, FAR };
+	private int changeCount = 1;
+
+	/** Scratch data for merging one group. */
+	private final Path2D.Float path = new Path2D.Float();
+	private float[] pieceX = new float[16];
+	private float[] pieceY = new float[16];
+
+	/** The grid of the source occluders, each listed in every cell its bounds touch, rebuilt on every update. */
+	private float gridX;
+	private float gridY;
+	private float cellSize;
+	private int columns;
+	private int rows;
+	private int[] cellStarts = new int[1];
+	private int[] cellCursors = new int[0];
+	private int[] cellEntries = new int[0];
+
+	/** Whether each source occluder is merged again, those being listed in the queue. */
+	private boolean[] affected = new boolean[0];
+	private int[] queue = new int[0];
+
+	/** The merged pieces which are removed. */
+	private int[] removed = new int[0];
+
+	/** Creates a merger which follows the changes of the source occluders. Everything is merged on the first update. */
+	public OccluderMerger(final OccluderStore source) {
+		this.source = source;
+		source.addListener(this);
+	}
+
+	/** Returns the simplified occluders, to be used for shadows instead of the source ones. */
+	public OccluderStore getMerged() {
+		return merged;
+	}
+
+	@Override
+	public void occludersChanged(final float minX, final float minY, final float maxX, final float maxY) {
+		if (changes.length < changeCount * 4 + 4) {
+			changes = Arrays.copyOf(changes, changes.length * 2);
+		}
+		final boolean isEverything = Float.isInfinite(minX) || Float.isInfinite(maxX) || Float.isInfinite(minY) || Float.isInfinite(maxY);
+		changes[changeCount * 4] = isEverything ? -FAR : minX;
+		changes[changeCount * 4 + 1] = isEverything ? -FAR : minY;
+		changes[changeCount * 4 + 2] = isEverything ? FAR : maxX;
+		changes[changeCount * 4 + 3] = isEverything ? FAR : maxY;
+		changeCount++;
+	}
+
+	/** Merges the occluders around every change since the last update again. */
+	public void update() {
+		if (changeCount == 0) {
+			return;
+		}
+
+		final int n = source.size();
+		buildGrid(n);
+		if (affected.length < n) {
+			affected = new boolean[n * 2];
+			queue = new int[n * 2];
+		} else {
+			Arrays.fill(affected, 0, n, false);
+		}
+
+		// the occluders touching the changes, then those touching them, so whole groups are merged again
+		int count = 0;
+		for (int c = 0; c < changeCount; c++) {
+			count = collect(changes[c * 4], changes[c * 4 + 1], changes[c * 4 + 2], changes[c * 4 + 3], count);
+		}
+		for (int q = 0; q < count; q++) {
+			final int i = queue[q];
+			count = collect(source.getMinX(i), source.getMinY(i), source.getMaxX(i), source.getMaxY(i), count);
+		}
+
+		// a piece lies within the occluders of its group, or within the changes for those which are gone, so a point
+		// of it shows whether its group is merged again
+		if (removed.length < merged.size()) {
+			removed = new int[merged.size() * 2];
+		}
+		int removedCount = 0;
+		for (int i = 0; i < merged.size(); i++) {
+			final float x = pointX(i);
+			final float y = pointY(i);
+			if (isChanged(x, y) || isAffected(x, y)) {
+				removed[removedCount++] = i;
+			}
+		}
+		merged.removeAll(removed, removedCount);
+		changeCount = 0;
+
+		Arrays.sort(queue, 0, count);
+		mergeAll(queue, count);
+	}
+
+	/** Lists every source occluder in the cells its bounds touch, in cells of about the size of an occluder. */
+	private void buildGrid(final int n) {
+		columns = rows = 0;
+		if (n == 0) {
+			return;
+		}
+
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+		float extents = 0;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, source.getMinX(i));
+			minY = Math.min(minY, source.getMinY(i));
+			maxX = Math.max(maxX, source.getMaxX(i));
+			maxY = Math.max(maxY, source.getMaxY(i));
+			extents += Math.max(source.getMaxX(i) - source.getMinX(i), source.getMaxY(i) - source.getMinY(i));
+		}
+		gridX = minX - TOUCH_DISTANCE;
+		gridY = minY - TOUCH_DISTANCE;
+		final float width = maxX - minX + TOUCH_DISTANCE * 2;
+		final float height = maxY - minY + TOUCH_DISTANCE * 2;
+
+		// no more than a few cells per occluder
+		cellSize = Math.max(extents / n, 1);
+		while (((long) (width / cellSize) + 1) * ((long) (height / cellSize) + 1) > 4L * n + 16) {
+			cellSize *= 2;
+		}
+		columns = (int) (width / cellSize) + 1;
+		rows = (int) (height / cellSize) + 1;
+
+		final int cells = columns * rows;
+		if (cellStarts.length < cells + 1) {
+			cellStarts = new int[cells * 2 + 1];
+			cellCursors = new int[cells * 2];
+		}
+		Arrays.fill(cellStarts, 0, cells + 1, 0);
+		for (int i = 0; i < n; i++) {
+			final int fromX = column(source.getMinX(i) - TOUCH_DISTANCE), toX = column(source.getMaxX(i) + TOUCH_DISTANCE);
+			final int fromY = row(source.getMinY(i) - TOUCH_DISTANCE), toY = row(source.getMaxY(i) + TOUCH_DISTANCE);
+			for (int cy = fromY; cy <= toY; cy++) {
+				for (int cx = fromX; cx <= toX; cx++) {
+					cellStarts[cy * columns + cx + 1]++;
+				}
+			}
+		}
+		for (int c = 0; c < cells; c++) {
+			cellStarts[c + 1] += cellStarts[c];
+		}
+
+		if (cellEntries.length < cellStarts[cells]) {
+			cellEntries = new int[cellStarts[cells] * 2];
+		}
+		System.arraycopy(cellStarts, 0, cellCursors, 0, cells);
+		for (int i = 0; i < n; i++) {
+			final int fromX = column(source.getMinX(i) - TOUCH_DISTANCE), toX = column(source.getMaxX(i) + TOUCH_DISTANCE);
+			final int fromY = row(source.getMinY(i) - TOUCH_DISTANCE), toY = row(source.getMaxY(i) + TOUCH_DISTANCE);
+			for (int cy = fromY; cy <= toY; cy++) {
+				for (int cx = fromX; cx <= toX; cx++) {
+					cellEntries[cellCursors[cy * columns + cx]++] = i;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues every source occluder not queued yet which touches the bounds.
+	 *
+	 * @return the new length of the queue
+	 */
+	private int collect(final float minX, final float minY, final float maxX, final float maxY, int count) {
+		if (columns == 0) {
+			return count;
+		}
+		final int fromX = column(minX), toX = column(maxX);
+		final int fromY = row(minY), toY = row(maxY);
+		for (int cy = fromY; cy <= toY; cy++) {
+			for (int cx = fromX; cx <= toX; cx++) {
+				final int cell = cy * columns + cx;
+				for (int e = cellStarts[cell]; e < cellStarts[cell + 1]; e++) {
+					final int i = cellEntries[e];
+					if (!affected[i] && touches(source.getMinX(i), source.getMinY(i), source.getMaxX(i), source.getMaxY(i), minX, minY, maxX, maxY)) {
+						affected[i] = true;
+						queue[count++] = i;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	/** Returns whether the point is within the bounds of a change. */
+	private boolean isChanged(final float x, final float y) {
+		for (int c = 0; c < changeCount; c++) {
+			if (x >= changes[c * 4] - EPSILON && x <= changes[c * 4 + 2] + EPSILON && y >= changes[c * 4 + 1] - EPSILON && y <= changes[c * 4 + 3] + EPSILON) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Returns whether the point is within the bounds of a source occluder which is merged again. */
+	private boolean isAffected(final float x, final float y) {
+		if (columns == 0) {
+			return false;
+		}
+		final int cell = row(y) * columns + column(x);
+		for (int e = cellStarts[cell]; e < cellStarts[cell + 1]; e++) {
+			final int i = cellEntries[e];
+			if (affected[i] && x >= source.getMinX(i) - EPSILON && x <= source.getMaxX(i) + EPSILON && y >= source.getMinY(i) - EPSILON && y <= source.getMaxY(i) + EPSILON) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Returns the x of a point within the merged piece, the average of its vertices or the center of a circle. */
+	private float pointX(final int index) {
+		final int count = merged.getCount(index);
+		if (count == 0) {
+			return merged.getCenterX(index);
+		}
+		final float[] vertexX = merged.getVertexX();
+		float sum = 0;
+		for (int v = merged.getOffset(index); v < merged.getOffset(index) + count; v++) {
+			sum += vertexX[v];
+		}
+		return sum / count;
+	}
+
+	/** Returns the y of the point of {@link #pointX(int)}. */
+	private float pointY(final int index) {
+		final int count = merged.getCount(index);
+		if (count == 0) {
+			return merged.getCenterY(index);
+		}
+		final float[] vertexY = merged.getVertexY();
+		float sum = 0;
+		for (int v = merged.getOffset(index); v < merged.getOffset(index) + count; v++) {
+			sum += vertexY[v];
+		}
+		return sum / count;
+	}
+
+	/** Returns the grid column of the x, clamped to the grid. */
+	private int column(final float x) {
+		return Math.max(0, Math.min(columns - 1, (int) Math.floor((x - gridX) / cellSize)));
+	}
+
+	/** Returns the grid row of the y, clamped to the grid. */
+	private int row(final float y) {
+		return Math.max(0, Math.min(rows - 1, (int) Math.floor((y - gridY) / cellSize)));
+	}
+
+	/** Groups the given source occluders by whether they touch, and adds the merged pieces of each group. */
+	private void mergeAll(final int[] indices, final int count) {
+		// union find over a sweep along x
+		final int[] parent = new int[count];
+		for (int i = 0; i < count; i++) {
+			parent[i] = i;
+		}
+		final Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Float.compare(source.getMinX(indices[a]), source.getMinX(indices[b])));
+
+		for (int i = 0; i < count; i++) {
+			final int a = indices[order[i]];
+			if (!isMergeable(a)) {
+				continue;
+			}
+			for (int j = i + 1; j < count; j++) {
+				final int b = indices[order[j]];
+				if (source.getMinX(b) > source.getMaxX(a) + TOUCH_DISTANCE) {
+					break;
+				}
+				if (isMergeable(b) && source.getMinY(b) <= source.getMaxY(a) + TOUCH_DISTANCE && source.getMaxY(b) >= source.getMinY(a) - TOUCH_DISTANCE) {
+					parent[find(parent, order[i])] = find(parent, order[j]);
+				}
+			}
+		}
+
+		final List<List<Integer>> groups = new ArrayList<>();
+		final int[] groupOf = new int[count];
+		Arrays.fill(groupOf, -1);
+		for (int i = 0; i < count; i++) {
+			final int root = find(parent, i);
+			if (groupOf[root] < 0) {
+				groupOf[root] = groups.size();
+				groups.add(new ArrayList<>());
+			}
+			groups.get(groupOf[root]).add(indices[i]);
+		}
+
+		for (int g = 0; g < groups.size(); g++) {
+			final List<Integer> group = groups.get(g);
+			if (group.size() == 1) {
+				merged.addFrom(source, group.get(0));
+			} else {
+				mergeGroup(group);
+			}
+		}
+	}
+
+	/** Unions the occluders of the group and adds the convex pieces of the union. */
+	private void mergeGroup(final List<Integer> group) {
+		final Area union = new Area();
+		boolean isStatic = true;
+		for (int i = 0; i < group.size(); i++) {
+			path.reset();
+			source.appendTo(group.get(i), path);
+			union.add(new Area(path));
+			isStatic &= source.isStatic(group.get(i));
+		}
+
+		// the edges of the union which aren't horizontal, from top to bottom
+		final List<float[]> edges = new ArrayList<>();
+		final List<Float> ys = new ArrayList<>();
+		final float[] coords = new float[6];
+		float startX = 0, startY = 0, lastX = 0, lastY = 0;
+		for (final PathIterator it = union.getPathIterator(null, 0.5); !it.isDone(); it.next()) {
+			final int type = it.currentSegment(coords);
+			if (type == PathIterator.SEG_MOVETO) {
+				startX = lastX = coords[0];
+				startY = lastY = coords[1];
+			} else {
+				final float x = type == PathIterator.SEG_CLOSE ? startX : coords[0];
+				final float y = type == PathIterator.SEG_CLOSE ? startY : coords[1];
+				if (y != lastY) {
+					edges.add(lastY < y ? new float[] { lastX, lastY, x, y } : new float[] { x, y, lastX, lastY });
+				}
+				lastX = x;
+				lastY = y;
+			}
+			ys.add(lastY);
+		}
+
+		final float[] slabs = new float[ys.size()];
+		for (int i = 0; i < slabs.length; i++) {
+			slabs[i] = ys.get(i);
+		}
+		Arrays.sort(slabs);
+
+		// cut the union into trapezoids between each two vertex heights, extending the open pieces with them
+		List<Piece> open = new ArrayList<>();
+		final List<Piece> done = new ArrayList<>();
+		final List<float[]> crossing = new ArrayList<>();
+		for (int k = 0; k + 1 < slabs.length; k++) {
+			final float top = slabs[k];
+			final float bottom = slabs[k + 1];
+			if (bottom - top < EPSILON) {
+				continue;
+			}
+
+			crossing.clear();
+			final float middle = (top + bottom) / 2;
+			for (int e = 0; e < edges.size(); e++) {
+				final float[] edge = edges.get(e);
+				if (edge[1] <= middle && edge[3] >= middle) {
+					crossing.add(edge);
+				}
+			}
+			crossing.sort((a, b) -> Float.compare(xAt(a, middle), xAt(b, middle)));
+
+			final List<Piece> next = new ArrayList<>();
+			for (int c = 0; c + 1 < crossing.size(); c += 2) {
+				final float topLeft = xAt(crossing.get(c), top);
+				final float bottomLeft = xAt(crossing.get(c), bottom);
+				final float topRight = xAt(crossing.get(c + 1), top);
+				final float bottomRight = xAt(crossing.get(c + 1), bottom);
+
+				Piece extended = null;
+				for (int p = 0; p < open.size() && extended == null; p++) {
+					if (open.get(p).extend(top, topLeft, topRight, bottom, bottomLeft, bottomRight)) {
+						extended = open.remove(p);
+					}
+				}
+				if (extended == null) {
+					extended = new Piece(top, topLeft, topRight, bottom, bottomLeft, bottomRight);
+				}
+				next.add(extended);
+			}
+			done.addAll(open);
+			open = next;
+		}
+		done.addAll(open);
+
+		for (int p = 0; p < done.size(); p++) {
+			addPiece(done.get(p), isStatic);
+		}
+	}
+
+	/** Adds the outline of the piece without its collinear vertices, as a box if it is one. */
+	private void addPiece(final Piece piece, final boolean isStatic) {
+		final int n = piece.left.size() / 2 + piece.right.size() / 2;
+		if (pieceX.length < n) {
+			pieceX = new float[n * 2];
+			pieceY = new float[n * 2];
+		}
+
+		// down the left side and up the right side
+		int count = 0;
+		for (int i = 0; i < piece.left.size(); i += 2) {
+			count = addVertex(count, piece.left.get(i), piece.left.get(i + 1));
+		}
+		for (int i = piece.right.size() - 2; i >= 0; i -= 2) {
+			count = addVertex(count, piece.right.get(i), piece.right.get(i + 1));
+		}
+
+		// the vertices around the start
+		while (count >= 3 && isCollinear(pieceX[count - 1], pieceY[count - 1], pieceX[0], pieceY[0], pieceX[1], pieceY[1])) {
+			System.arraycopy(pieceX, 1, pieceX, 0, count - 1);
+			System.arraycopy(pieceY, 1, pieceY, 0, count - 1);
+			count--;
+		}
+		while (count >= 3 && isCollinear(pieceX[count - 2], pieceY[count - 2], pieceX[count - 1], pieceY[count - 1], pieceX[0], pieceY[0])) {
+			count--;
+		}
+		if (count < 3) {
+			return;
+		}
+
+		final int index;
+		if (count == 4 && isBox()) {
+			final float minX = Math.min(pieceX[0], pieceX[2]);
+			final float minY = Math.min(pieceY[0], pieceY[2]);
+			index = merged.addBox(minX, minY, Math.abs(pieceX[2] - pieceX[0]), Math.abs(pieceY[2] - pieceY[0]));
+		} else {
+			index = merged.add(pieceX, pieceY, count);
+		}
+		merged.setStatic(index, isStatic);
+	}
+
+	/** Appends the vertex to the piece outline, dropping it if it repeats the last one or is in line with it. */
+	private int addVertex(int count, final float x, final float y) {
+		if (count > 0 && Math.abs(pieceX[count - 1] - x) < EPSILON && Math.abs(pieceY[count - 1] - y) < EPSILON) {
+			return count;
+		}
+		if (count >= 2 && isCollinear(pieceX[count - 2], pieceY[count - 2], pieceX[count - 1], pieceY[count - 1], x, y)) {
+			count--;
+		}
+		pieceX[count] = x;
+		pieceY[count] = y;
+		return count + 1;
+	}
+
+	/** Returns whether the four piece vertices form an axis aligned box. */
+	private boolean isBox() {
+		for (int i = 0; i < 4; i++) {
+			final int j = (i + 1) % 4;
+			if (Math.abs(pieceX[i] - pieceX[j]) >= EPSILON && Math.abs(pieceY[i] - pieceY[j]) >= EPSILON) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Only polygons and boxes are merged, circles and segments are copied. */
+	private boolean isMergeable(final int index) {
+		return source.getType(index) == OccluderStore.POLYGON || source.getType(index) == OccluderStore.BOX;
+	}
+
+	private static boolean isCollinear(final float ax, final float ay, final float bx, final float by, final float cx, final float cy) {
+		return Math.abs((bx - ax) * (cy - ay) - (by - ay) * (cx - ax)) < EPSILON;
+	}
+
+	private static boolean touches(final float minX, final float minY, final float maxX, final float maxY, final float regionMinX, final float regionMinY, final float regionMaxX, final float regionMaxY) {
+		return minX <= regionMaxX + TOUCH_DISTANCE && maxX >= regionMinX - TOUCH_DISTANCE && minY <= regionMaxY + TOUCH_DISTANCE && maxY >= regionMinY - TOUCH_DISTANCE;
+	}
+
+	/** Returns the x of the edge { x0, y0, x1, y1 } at the given y. */
+	private static float xAt(final float[] edge, final float y) {
+		return edge[0] + (y - edge[1]) * (edge[2] - edge[0]) / (edge[3] - edge[1]);
+	}
+
+	private static int find(final int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * A convex piece of a union being built from top to bottom, stored as its left and right sides as x, y pairs.
+	 */
+	private static final class Piece {
+		private final List<Float> left = new ArrayList<>();
+		private final List<Float> right = new ArrayList<>();
+
+		Piece(final float top, final float topLeft, final float topRight, final float bottom, final float bottomLeft, final float bottomRight) {
+			left.add(topLeft);
+			left.add(top);
+			left.add(bottomLeft);
+			left.add(bottom);
+			right.add(topRight);
+			right.add(top);
+			right.add(bottomRight);
+			right.add(bottom);
+		}
+
+		/**
+		 * Adds the trapezoid below the piece if its top matches the bottom of the piece and the piece stays convex.
+		 */
+		boolean extend(final float top, final float topLeft, final float topRight, final float bottom, final float bottomLeft, final float bottomRight) {
+			final int last = left.size() - 2;
+			if (Math.abs(left.get(last + 1) - top) >= EPSILON || Math.abs(left.get(last) - topLeft) >= EPSILON || Math.abs(right.get(last) - topRight) >= EPSILON) {
+				return false;
+			}
+
+			// the left side may only turn right and the right side only turn left, going down
+			if (!isConvex(left, bottomLeft, bottom, 1) || !isConvex(right, bottomRight, bottom, -1)) {
+				return false;
+			}
+
+			left.add(bottomLeft);
+			left.add(bottom);
+			right.add(bottomRight);
+			right.add(bottom);
+			return true;
+		}
+
+		private static boolean isConvex(final List<Float> side, final float x, final float y, final int sign) {
+			final int last = side.size() - 2;
+			final float x0 = side.get(last - 2), y0 = side.get(last - 1);
+			final float x1 = side.get(last), y1 = side.get(last + 1);
+			final float cross = (x1 - x0) * (y - y0) - (y1 - y0) * (x - x0);
+			return cross * sign <= EPSILON;
+		}
+	}
+}
@@ -0,0 +1,489 @@
+package light;
+
+import java.awt.Polygon;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import main.Constants;
+
+/**
+ * Stores every occluder of a scene as a struct of primitive arrays. All vertices are packed into two contiguous
+ * coordinate arrays, and each occluder owns a range of them through its offset and vertex count. The axis aligned
+ * bounds and center of each occluder are computed once on insertion, so the shadow code never has to touch a
+ * {@link Polygon} or its lazily computed bounds. Besides polygons, circles, line segments and axis aligned boxes are
+ * stored natively so that their silhouettes can be found in closed form.
+ *
+ * Occluders are addressed by their index, which stays valid until an occluder before it is removed. The arrays returned
+ * by the getters are the live backing arrays and must be treated as read-only.
+ */
+public class OccluderStore {
+	/** An arbitrary polygon, whose silhouette is found on its convex hull. */
+	public static final byte POLYGON = 0;
+	/** A circle, stored as its center and radius without any vertices. */
+	public static final byte CIRCLE = 1;
+	/** A line segment, stored as its two end points. */
+	public static final byte SEGMENT = 2;
+	/** An axis aligned box, stored as its four corners. */
+	public static final byte BOX = 3;
+
+	private static final int INITIAL_OCCLUDERS = 16;
+	private static final int INITIAL_VERTICES = 64;
+
+	/** The number of occluders and the number of packed vertices. */
+	private int size;
+	private int vertexCount;
+
+	/** The packed vertex coordinates of all occluders. */
+	private float[] vertexX = new float[INITIAL_VERTICES];
+	private float[] vertexY = new float[INITIAL_VERTICES];
+
+	/** The index of the first vertex and the amount of vertices of each occluder. */
+	private int[] offsets = new int[INITIAL_OCCLUDERS];
+	private int[] counts = new int[INITIAL_OCCLUDERS];
+
+	/** The shape type and, for circles, the radius of each occluder. */
+	private byte[] types = new byte[INITIAL_OCCLUDERS];
+	/** Whether each occluder is static, meaning it never moves. */
+	private boolean[] statics = new boolean[INITIAL_OCCLUDERS];
+	private float[] radii = new float[INITIAL_OCCLUDERS];
+
+	/** The bounds and center of each occluder. */
+	private float[] minX = new float[INITIAL_OCCLUDERS];
+	private float[] minY = new float[INITIAL_OCCLUDERS];
+	private float[] maxX = new float[INITIAL_OCCLUDERS];
+	private float[] maxY = new float[INITIAL_OCCLUDERS];
+	private float[] centerX = new float[INITIAL_OCCLUDERS];
+	private float[] centerY = new float[INITIAL_OCCLUDERS];
+
+	/** Incremented on every change, so lights can tell whether their shadows are out of date. */
+	private int version;
+
+	/** The distance field of these occluders, created the first time it is needed. */
+	private DistanceField distanceField;
+
+	/** The hulls of these occluders, created the first time they are needed. */
+	private OccluderHulls hulls;
+
+	/** Notified of the bounds of every added or removed occluder. */
+	private final List<Listener> listeners = new ArrayList<>(0);
+
+	/**
+	 * Listens for changes to the occluders, for data derived from them which can be updated locally.
+	 */
+	public interface Listener {
+		/**
+		 * Called after an occluder within the given bounds has been added or removed. Clearing the store reports
+		 * infinite bounds.
+		 */
+		void occludersChanged(float minX, float minY, float maxX, float maxY);
+	}
+
+	/**
+	 * Adds a polygon occluder.
+	 *
+	 * @return the index of the new occluder
+	 */
+	public int add(final Polygon p) {
+		final int index = beginOccluder(POLYGON, p.npoints);
+		for (int i = 0; i < p.npoints; i++) {
+			addVertex(p.xpoints[i], p.ypoints[i]);
+		}
+		return endOccluder(index);
+	}
+
+	/**
+	 * Adds a polygon occluder from the first n coordinates of xs and ys.
+	 *
+	 * @return the index of the new occluder
+	 */
+	public int add(final float[] xs, final float[] ys, final int n) {
+		final int index = beginOccluder(POLYGON, n);
+		for (int i = 0; i < n; i++) {
+			addVertex(xs[i], ys[i]);
+		}
+		return endOccluder(index);
+	}
+
+	/**
+	 * Adds a circle occluder.
+	 *
+	 * @return the index of the new occluder
+	 */
+	public int addCircle(final float x, final float y, final float radius) {
+		final int index = beginOccluder(CIRCLE, 0);
+		radii[index] = radius;
+		minX[index] = x - radius;
+		minY[index] = y - radius;
+		maxX[index] = x + radius;
+		maxY[index] = y + radius;
+		return endOccluder(index);
+	}
+
+	/**
+	 * Adds a line segment occluder between (x1, y1) and (x2, y2).
+	 *
+	 * @return the index of the new occluder
+	 */
+	public int addSegment(final float x1, final float y1, final float x2, final float y2) {
+		final int index = beginOccluder(SEGMENT, 2);
+		addVertex(x1, y1);
+		addVertex(x2, y2);
+		return endOccluder(index);
+	}
+
+	/**
+	 * Adds an axis aligned box occluder. The corners are stored clockwise starting at the top left one.
+	 *
+	 * @return the index of the new occluder
+	 */
+	public int addBox(final float x, final float y, final float width, final float height) {
+		final int index = beginOccluder(BOX, 4);
+		addVertex(x, y);
+		addVertex(x + width, y);
+		addVertex(x + width, y + height);
+		addVertex(x, y + height);
+		return endOccluder(index);
+	}
+
+	/**
+	 * Adds a copy of the occluder at index of another store, keeping its type and static flag.
+	 *
+	 * @return the index of the new occluder
+	 */
+	public int addFrom(final OccluderStore other, final int index) {
+		final int n = other.counts[index];
+		final int newIndex = beginOccluder(other.types[index], n);
+		for (int j = other.offsets[index]; j < other.offsets[index] + n; j++) {
+			addVertex(other.vertexX[j], other.vertexY[j]);
+		}
+		radii[newIndex] = other.radii[index];
+		statics[newIndex] = other.statics[index];
+		minX[newIndex] = other.minX[index];
+		minY[newIndex] = other.minY[index];
+		maxX[newIndex] = other.maxX[index];
+		maxY[newIndex] = other.maxY[index];
+		return endOccluder(newIndex);
+	}
+
+	/** Adds all the polygons, growing the arrays at most once. */
+	public void addAll(final List<Polygon> polygons) {
+		int vertices = 0;
+		for (int i = 0; i < polygons.size(); i++) {
+			vertices += polygons.get(i).npoints;
+		}
+		ensureOccluderCapacity(size + polygons.size());
+		ensureVertexCapacity(vertexCount + vertices);
+
+		for (int i = 0; i < polygons.size(); i++) {
+			add(polygons.get(i));
+		}
+	}
+
+	/** Removes the occluder at index. Every occluder after it moves down by one index. */
+	public void remove(final int index) {
+		removeAll(new int[] { index }, 1);
+	}
+
+	/**
+	 * Removes the occluders at the first n given indices in a single compaction pass. Remaining occluders keep their
+	 * relative order.
+	 */
+	public void removeAll(final int[] indices, final int n) {
+		if (n == 0) {
+			return;
+		}
+
+		final boolean[] removed = new boolean[size];
+		for (int i = 0; i < n; i++) {
+			if (indices[i] < 0 || indices[i] >= size) {
+				throw new IndexOutOfBoundsException("Occluder index: " + indices[i] + ", size: " + size);
+			}
+			removed[indices[i]] = true;
+		}
+
+		int newSize = 0;
+		int newVertexCount = 0;
+		for (int i = 0; i < size; i++) {
+			if (removed[i]) {
+				fireChanged(minX[i], minY[i], maxX[i], maxY[i]);
+				continue;
+			}
+
+			// vertices only ever move towards the start, so copying in place is safe
+			System.arraycopy(vertexX, offsets[i], vertexX, newVertexCount, counts[i]);
+			System.arraycopy(vertexY, offsets[i], vertexY, newVertexCount, counts[i]);
+
+			offsets[newSize] = newVertexCount;
+			counts[newSize] = counts[i];
+			types[newSize] = types[i];
+			statics[newSize] = statics[i];
+			radii[newSize] = radii[i];
+			minX[newSize] = minX[i];
+			minY[newSize] = minY[i];
+			maxX[newSize] = maxX[i];
+			maxY[newSize] = maxY[i];
+			centerX[newSize] = centerX[i];
+			centerY[newSize] = centerY[i];
+
+			newVertexCount += counts[i];
+			newSize++;
+		}
+
+		size = newSize;
+		vertexCount = newVertexCount;
+		version++;
+	}
+
+	/** Removes every occluder, keeping the allocated arrays. */
+	public void clear() {
+		size = 0;
+		vertexCount = 0;
+		version++;
+		fireChanged(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+	}
+
+	/** Returns the distance field of these occluders, which keeps itself up to date with them. */
+	public DistanceField getDistanceField() {
+		if (distanceField == null) {
+			distanceField = new DistanceField(this, Constants.SDF_CELL_SIZE, Constants.SDF_MAX_DISTANCE);
+		}
+		return distanceField;
+	}
+
+	/**
+	 * Returns the hulls and bounding circles of these occluders, rebuilt first if the occluders changed since they
+	 * were last asked for. The first light cut after a change pays for the rebuild, every other light shares it.
+	 */
+	public OccluderHulls getHulls() {
+		if (hulls == null) {
+			hulls = new OccluderHulls(this);
+		}
+		hulls.update();
+		return hulls;
+	}
+
+	public void addListener(final Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(final Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/** Appends the outline of the occluder at index to the path. */
+	public void appendTo(final int index, final Path2D.Float path) {
+		if (types[index] == CIRCLE) {
+			final float r = radii[index];
+			path.append(new Ellipse2D.Float(centerX[index] - r, centerY[index] - r, r * 2, r * 2), false);
+			return;
+		}
+
+		final int start = offsets[index];
+		final int end = start + counts[index];
+		if (start == end) {
+			return;
+		}
+
+		path.moveTo(vertexX[start], vertexY[start]);
+		for (int j = start + 1; j < end; j++) {
+			path.lineTo(vertexX[j], vertexY[j]);
+		}
+		path.closePath();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public int getOffset(final int index) {
+		return offsets[index];
+	}
+
+	public int getCount(final int index) {
+		return counts[index];
+	}
+
+	public boolean isStatic(final int index) {
+		return statics[index];
+	}
+
+	/**
+	 * Marks the occluder at index as static or dynamic. New occluders are dynamic. The merged occluders and the baked
+	 * static lights depend on the flag, so a change of it is reported like a change of the occluder.
+	 */
+	public void setStatic(final int index, final boolean isStatic) {
+		if (statics[index] == isStatic) {
+			return;
+		}
+		statics[index] = isStatic;
+		version++;
+		fireChanged(minX[index], minY[index], maxX[index], maxY[index]);
+	}
+
+	public byte getType(final int index) {
+		return types[index];
+	}
+
+	/** Returns the radius of a circle occluder, or 0 for any other type. */
+	public float getRadius(final int index) {
+		return radii[index];
+	}
+
+	public float[] getVertexX() {
+		return vertexX;
+	}
+
+	public float[] getVertexY() {
+		return vertexY;
+	}
+
+	public float getMinX(final int index) {
+		return minX[index];
+	}
+
+	public float getMinY(final int index) {
+		return minY[index];
+	}
+
+	public float getMaxX(final int index) {
+		return maxX[index];
+	}
+
+	public float getMaxY(final int index) {
+		return maxY[index];
+	}
+
+	public float getCenterX(final int index) {
+		return centerX[index];
+	}
+
+	public float getCenterY(final int index) {
+		return centerY[index];
+	}
+
+	/**
+	 * Returns whether the point is inside the occluder at index. A segment contains the points within half a pixel of
+	 * it.
+	 */
+	public boolean contains(final int index, final float x, final float y) {
+		if (x < minX[index] - 0.5f || x > maxX[index] + 0.5f || y < minY[index] - 0.5f || y > maxY[index] + 0.5f) {
+			return false;
+		}
+
+		final int start = offsets[index];
+		switch (types[index]) {
+		case CIRCLE:
+			final float dx = x - centerX[index];
+			final float dy = y - centerY[index];
+			return dx * dx + dy * dy <= radii[index] * radii[index];
+		case BOX:
+			return x >= minX[index] && x <= maxX[index] && y >= minY[index] && y <= maxY[index];
+		case SEGMENT:
+			return Line2D.ptSegDistSq(vertexX[start], vertexY[start], vertexX[start + 1], vertexY[start + 1], x, y) <= 0.25f;
+		default:
+			// even-odd rule
+			boolean inside = false;
+			final int end = start + counts[index];
+			for (int i = start, j = end - 1; i < end; j = i++) {
+				if (vertexY[i] > y != vertexY[j] > y && x < (vertexX[j] - vertexX[i]) * (y - vertexY[i]) / (vertexY[j] - vertexY[i]) + vertexX[i]) {
+					inside = !inside;
+				}
+			}
+			return inside;
+		}
+	}
+
+	/**
+	 * Returns the squared distance from the point to the bounds of the occluder at index, or 0 if the point is inside
+	 * them.
+	 */
+	public float boundsDistanceSq(final int index, final float x, final float y) {
+		final float dx = Math.max(Math.max(minX[index] - x, 0), x - maxX[index]);
+		final float dy = Math.max(Math.max(minY[index] - y, 0), y - maxY[index]);
+		return dx * dx + dy * dy;
+	}
+
+	/** Reserves the slot of a new occluder of the given type with n vertices. */
+	private int beginOccluder(final byte type, final int n) {
+		ensureOccluderCapacity(size + 1);
+		ensureVertexCapacity(vertexCount + n);
+
+		offsets[size] = vertexCount;
+		counts[size] = 0;
+		types[size] = type;
+		statics[size] = false;
+		radii[size] = 0;
+		minX[size] = minY[size] = Float.POSITIVE_INFINITY;
+		maxX[size] = maxY[size] = Float.NEGATIVE_INFINITY;
+		return size;
+	}
+
+	private void addVertex(final float x, final float y) {
+		vertexX[vertexCount] = x;
+		vertexY[vertexCount] = y;
+		vertexCount++;
+
+		counts[size]++;
+		minX[size] = Math.min(minX[size], x);
+		minY[size] = Math.min(minY[size], y);
+		maxX[size] = Math.max(maxX[size], x);
+		maxY[size] = Math.max(maxY[size], y);
+	}
+
+	/** Finishes the occluder started by beginOccluder and computes its center. */
+	private int endOccluder(final int index) {
+		if (counts[index] == 0 && types[index] != CIRCLE) {
+			minX[index] = minY[index] = maxX[index] = maxY[index] = 0;
+		}
+		centerX[index] = (minX[index] + maxX[index]) / 2f;
+		centerY[index] = (minY[index] + maxY[index]) / 2f;
+
+		size++;
+		version++;
+		fireChanged(minX[index], minY[index], maxX[index], maxY[index]);
+		return index;
+	}
+
+	private void fireChanged(final float changedMinX, final float changedMinY, final float changedMaxX, final float changedMaxY) {
+		for (int i = 0; i < listeners.size(); i++) {
+			listeners.get(i).occludersChanged(changedMinX, changedMinY, changedMaxX, changedMaxY);
+		}
+	}
+
+	private void ensureOccluderCapacity(final int capacity) {
+		if (capacity <= offsets.length) {
+			return;
+		}
+
+		final int newCapacity = Math.max(capacity, offsets.length * 2);
+		offsets = Arrays.copyOf(offsets, newCapacity);
+		counts = Arrays.copyOf(counts, newCapacity);
+		types = Arrays.copyOf(types, newCapacity);
+		statics = Arrays.copyOf(statics, newCapacity);
+		radii = Arrays.copyOf(radii, newCapacity);
+		minX = Arrays.copyOf(minX, newCapacity);
+		minY = Arrays.copyOf(minY, newCapacity);
+		maxX = Arrays.copyOf(maxX, newCapacity);
+		maxY = Arrays.copyOf(maxY, newCapacity);
+		centerX = Arrays.copyOf(centerX, newCapacity);
+		centerY = Arrays.copyOf(centerY, newCapacity);
+	}
+
+	private void ensureVertexCapacity(final int capacity) {
+		if (capacity <= vertexX.length) {
+			return;
+		}
+
+		final int newCapacity = Math.max(capacity, vertexX.length * 2);
+		vertexX = Arrays.copyOf(vertexX, newCapacity);
+		vertexY = Arrays.copyOf(vertexY, newCapacity);
+	}
+}
@@ -0,0 +1,226 @@
+package light;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import utils.BufferPool;
+import utils.GraphicsUtils;
+
+/**
+ * Draws many lights into a lightmap in parallel. The lights are split into runs of about the same covered area, and
+ * each worker draws its run into a private buffer exactly as it would draw into the lightmap. The buffers are then
+ * merged into the lightmap in light order, a band of rows per task.
+ *
+ * Unlike splitting the lightmap into tiles, this balances well when a few huge lights overlap most of the screen. The
+ * buffers are kept in a pool between frames, and each is cleared while it is merged, so only the part its lights
+ * covered is touched.
+ */
+public class ParallelLightmap {
+	/** The least amount of rows a merge task covers before it is split. */
+	private static final int ROWS_PER_TASK = 16;
+
+	private final ForkJoinPool pool;
+
+	/** Holds the buffers between frames. */
+	private final BufferPool bufferPool;
+
+	/** The private buffer of each worker this frame, empty between frames. */
+	private final List<BufferedImage> buffers = new ArrayList<>();
+
+	/** The name of each worker's buffer in the pool. */
+	private final List<String> names = new ArrayList<>();
+
+	/** The region each worker drew into this frame. */
+	private final List<Rectangle> dirty = new ArrayList<>();
+
+	/** The first light of each worker's run, and one past the last run. */
+	private int[] runs = new int[0];
+
+	/** The drawing tasks, re-used between frames. */
+	private final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+
+	/**
+	 * @param pool
+	 *            the pool to draw and merge on, which also sets the amount of buffers
+	 * @param bufferPool
+	 *            the pool to take the buffers from
+	 */
+	public ParallelLightmap(final ForkJoinPool pool, final BufferPool bufferPool) {
+		this.pool = pool;
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Draws the lights over the lightmap, in their shadow modes. Gives the same image as drawing them one after the
+	 * other.
+	 *
+	 * @param lightmap
+	 *            an INT_ARGB_PRE image
+	 */
+	public void draw(final List<SmoothLight> lights, final BufferedImage lightmap) {
+		final int workers = Math.min(pool.getParallelism(), lights.size());
+		if (workers < 2) {
+			drawRun(lights, 0, lights.size(), lightmap, null);
+			return;
+		}
+
+		resize(workers, lightmap.getWidth(), lightmap.getHeight());
+		split(lights, workers, lightmap.getWidth(), lightmap.getHeight());
+
+		tasks.clear();
+		for (int k = 0; k < workers; k++) {
+			final int worker = k;
+			tasks.add(ForkJoinTask.adapt(() -> drawRun(lights, runs[worker], runs[worker + 1], buffers.get(worker), dirty.get(worker))));
+		}
+		for (final ForkJoinTask<?> task : tasks) {
+			pool.execute(task);
+		}
+		for (final ForkJoinTask<?> task : tasks) {
+			task.join();
+		}
+
+		final int[] pixels = ((DataBufferInt) lightmap.getRaster().getDataBuffer()).getData();
+		pool.invoke(new MergeTask(pixels, lightmap.getWidth(), workers, 0, lightmap.getHeight()));
+	}
+
+	/** Takes a buffer of the lightmap's size for each worker from the pool, which clears them on a resize. */
+	private void resize(final int workers, final int width, final int height) {
+		while (dirty.size() < workers) {
+			names.add("parallel lights " + dirty.size());
+			dirty.add(new Rectangle());
+		}
+		buffers.clear();
+		for (int k = 0; k < workers; k++) {
+			buffers.add(bufferPool.getImage(names.get(k), width, height));
+		}
+	}
+
+	/** Splits the lights into runs of about the same covered area, keeping their order. */
+	private void split(final List<SmoothLight> lights, final int workers, final int width, final int height) {
+		if (runs.length < workers + 1) {
+			runs = new int[workers + 1];
+		}
+
+		final Rectangle screen = new Rectangle(0, 0, width, height);
+		final long[] cost = new long[lights.size() + 1];
+		for (int i = 0; i < lights.size(); i++) {
+			final Rectangle covered = lights.get(i).getBounds().intersection(screen);
+			// a skipped light still costs a little to skip
+			final boolean isSkipped = covered.isEmpty() || lights.get(i).getVisibility(width, height) == LightVisibility.OCCLUDED;
+			cost[i + 1] = cost[i] + 1 + (isSkipped ? 0 : (long) covered.width * covered.height);
+		}
+
+		int light = 0;
+		for (int k = 0; k < workers; k++) {
+			runs[k] = light;
+			// at least one light per run, and leave one for each later run
+			final long target = cost[lights.size()] * (k + 1) / workers;
+			light++;
+			while (light < lights.size() - (workers - k - 1) && cost[light] < target) {
+				light++;
+			}
+		}
+		runs[workers] = lights.size();
+	}
+
+	/**
+	 * Draws a run of lights into the image as SmoothLight does.
+	 *
+	 * @param dirty
+	 *            set to the region drawn into, if not null
+	 */
+	private static void drawRun(final List<SmoothLight> lights, final int from, final int to, final BufferedImage image, final Rectangle dirty) {
+		final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		Graphics2D g = null;
+		if (dirty != null) {
+			dirty.setBounds(0, 0, 0, 0);
+		}
+
+		for (int i = from; i < to; i++) {
+			final SmoothLight l = lights.get(i);
+			if (l.getShadowMode() == ShadowMode.AREA) {
+				if (g == null) {
+					g = image.createGraphics();
+				}
+				l.draw(g, image.getWidth(), image.getHeight());
+			} else {
+				l.draw(pixels, image.getWidth(), image.getHeight());
+			}
+
+			if (dirty != null) {
+				if (dirty.isEmpty()) {
+					dirty.setBounds(l.getBounds());
+				} else {
+					dirty.add(l.getBounds());
+				}
+			}
+		}
+
+		if (g != null) {
+			g.dispose();
+		}
+		if (dirty != null) {
+			Rectangle.intersect(dirty, new Rectangle(0, 0, image.getWidth(), image.getHeight()), dirty);
+		}
+	}
+
+	/** Merges the buffers over a band of rows of the lightmap and clears them. */
+	private void mergeRows(final int[] pixels, final int width, final int workers, final int fromRow, final int toRow) {
+		for (int k = 0; k < workers; k++) {
+			final Rectangle region = dirty.get(k);
+			final int minY = Math.max(fromRow, region.y);
+			final int maxY = Math.min(toRow, region.y + region.height);
+			if (region.isEmpty() || minY >= maxY) {
+				continue;
+			}
+
+			final int[] buffer = ((DataBufferInt) buffers.get(k).getRaster().getDataBuffer()).getData();
+			for (int j = minY; j < maxY; j++) {
+				final int offset = j * width;
+				for (int i = offset + region.x; i < offset + region.x + region.width; i++) {
+					final int src = buffer[i];
+					if (src != 0) {
+						pixels[i] = GraphicsUtils.blendLight(pixels[i], src, 255);
+						buffer[i] = 0;
+					}
+				}
+			}
+		}
+	}
+
+	/** Merges a band of rows, splitting it in two until it is small enough. */
+	private final class MergeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int[] pixels;
+		private final int width;
+		private final int workers;
+		private final int fromRow;
+		private final int toRow;
+
+		MergeTask(final int[] pixels, final int width, final int workers, final int fromRow, final int toRow) {
+			this.pixels = pixels;
+			this.width = width;
+			this.workers = workers;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+		}
+
+		@Override
+		protected void compute() {
+			if (toRow - fromRow > ROWS_PER_TASK) {
+				final int middle = (fromRow + toRow) / 2;
+				invokeAll(new MergeTask(pixels, width, workers, fromRow, middle), new MergeTask(pixels, width, workers, middle, toRow));
+			} else {
+				mergeRows(pixels, width, workers, fromRow, toRow);
+			}
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package light;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import utils.GraphicsUtils;
+
+/**
+ * A 1D shadow map in polar coordinates around a light. The full circle is split into a power of two amount of angular
+ * bins, and each bin stores the distance to the nearest occluder edge in its direction. A pixel is then lit if it is
+ * closer to the light than the depth of its bin, which makes the cost of drawing a light independent of how complex
+ * the shadows are.
+ *
+ * Soft edges come from testing the neighboring bins too, and weighting the pixel by how many of them see it.
+ */
+public class PolarShadowMap {
+	/** How many lookups are kept for maps to share, besides the ones maps still hold. */
+	private static final int MAX_LOOKUPS = 8;
+
+	/**
+	 * The lookups of the texture sizes and amounts of bins used last, shared by all maps since they never change once
+	 * built. Lights can have any radius, so only the most recently used are kept, and an evicted lookup lives on only
+	 * as long as a map still holds it. Maps are drawn on several threads, so the cache is only used under its lock.
+	 */
+	private static final Map<Long, Lookup> LOOKUPS = new LinkedHashMap<Long, Lookup>(MAX_LOOKUPS * 2, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Long, Lookup> eldest) {
+			return size() > MAX_LOOKUPS;
+		}
+	};
+
+	private final int bins;
+	private final int binMask;
+	private final int softness;
+
+	/** The nearest occluder distance of each bin. */
+	private final float[] depth;
+
+	/** The direction of the center of each bin. */
+	private final float[] cos;
+	private final float[] sin;
+
+	/** The lookup of the size of the last light drawn. */
+	private Lookup lookup;
+
+	/**
+	 * @param bins
+	 *            the amount of angular bins, rounded up to a power of two
+	 * @param softness
+	 *            how many bins on each side of a pixel's bin are sampled for soft edges
+	 */
+	public PolarShadowMap(final int bins, final int softness) {
+		this.bins = Integer.highestOneBit(Math.max(4, bins - 1)) << 1;
+		binMask = this.bins - 1;
+		this.softness = softness;
+
+		depth = new float[this.bins];
+		cos = new float[this.bins];
+		sin = new float[this.bins];
+		for (int i = 0; i < this.bins; i++) {
+			final double angle = binAngle(i);
+			cos[i] = (float) Math.cos(angle);
+			sin[i] = (float) Math.sin(angle);
+		}
+	}
+
+	/** Rasterizes the edges of all occluders within reach of the light into the depth bins. */
+	public void build(final OccluderStore occluders, final Light light) {
+		build(occluders, light, null, 0, occluders.size());
+	}
+
+	/**
+	 * Rasterizes the edges of the candidate occluders within reach of the light, as in
+	 * {@link SmoothLight#cut(OccluderStore, int[], int, int)}.
+	 */
+	public void build(final OccluderStore occluders, final Light light, final int[] candidates, final int from, final int to) {
+		final float lightX = light.getX();
+		final float lightY = light.getY();
+		final float radius = light.getRadius();
+		Arrays.fill(depth, radius);
+
+		final float[] vertexX = occluders.getVertexX();
+		final float[] vertexY = occluders.getVertexY();
+		for (int c = from; c < to; c++) {
+			final int i = candidates == null ? c : candidates[c];
+			if (occluders.boundsDistanceSq(i, lightX, lightY) > radius * radius) {
+				continue;
+			}
+
+			if (occluders.getType(i) == OccluderStore.CIRCLE) {
+				circle(occluders.getCenterX(i) - lightX, occluders.getCenterY(i) - lightY, occluders.getRadius(i));
+				continue;
+			}
+
+			final int start = occluders.getOffset(i);
+			final int count = occluders.getCount(i);
+			if (count == 2) {
+				edge(vertexX[start] - lightX, vertexY[start] - lightY, vertexX[start + 1] - lightX, vertexY[start + 1] - lightY);
+				continue;
+			}
+			for (int j = 0, k = count - 1; j < count; k = j++) {
+				edge(vertexX[start + k] - lightX, vertexY[start + k] - lightY, vertexX[start + j] - lightX, vertexY[start + j] - lightY);
+			}
+		}
+	}
+
+	/**
+	 * Blits the light's texture into the target pixels, with the alpha of each texel scaled by how many of the bins
+	 * around it see it.
+	 *
+	 * @param pixels
+	 *            the INT_ARGB_PRE pixels of the target
+	 * @param width
+	 *            the width of the target
+	 * @param height
+	 *            the height of the target
+	 */
+	public void draw(final Light light, final int[] pixels, final int width, final int height) {
+		final int size = light.image.getWidth();
+		if (lookup == null || lookup.size != size) {
+			lookup = lookup(size, bins);
+		}
+		final int[] binOf = lookup.binOf;
+		final float[] distOf = lookup.distOf;
+
+		final int[] texture = light.getPixels();
+		final int x = (int) (light.getX() - light.getRadius());
+		final int y = (int) (light.getY() - light.getRadius());
+		final int minX = Math.max(0, x);
+		final int minY = Math.max(0, y);
+		final int maxX = Math.min(width, x + size);
+		final int maxY = Math.min(height, y + size);
+		final int samples = softness * 2 + 1;
+		final int intensity = Math.round(light.getIntensity() * 255);
+
+		for (int j = minY; j < maxY; j++) {
+			final int offset = j * width;
+			final int textureOffset = (j - y) * size - x;
+			for (int i = minX; i < maxX; i++) {
+				final int src = texture[textureOffset + i];
+				if (src >>> 24 == 0) {
+					continue;
+				}
+
+				final int bin = binOf[textureOffset + i];
+				final float dist = distOf[textureOffset + i];
+				int visible = 0;
+				for (int k = bin - softness; k <= bin + softness; k++) {
+					if (dist <= depth[k & binMask]) {
+						visible++;
+					}
+				}
+
+				final int lit = visible * intensity / samples;
+				if (lit != 0) {
+					pixels[offset + i] = GraphicsUtils.blendLight(pixels[offset + i], src, lit);
+				}
+			}
+		}
+	}
+
+	/** Returns the shared lookup of the texture size and amount of bins, building it if it isn't cached. */
+	private static Lookup lookup(final int size, final int bins) {
+		synchronized (LOOKUPS) {
+			return LOOKUPS.computeIfAbsent((long) size << 32 | bins, key -> new Lookup(size, bins));
+		}
+	}
+
+	/** Returns the amount of bins. */
+	public int getBins() {
+		return bins;
+	}
+
+	/** Rasterizes the edge between the two points, given relative to the light. */
+	private void edge(final float x0, final float y0, final float x1, final float y1) {
+		final float ex = x1 - x0;
+		final float ey = y1 - y0;
+
+		final float bin0 = toBin(x0, y0);
+		float delta = toBin(x1, y1) - bin0;
+		// walk the shorter way around the circle
+		if (delta > bins / 2) {
+			delta -= bins;
+		} else if (delta < -bins / 2) {
+			delta += bins;
+		}
+
+		final int first = (int) Math.floor(Math.min(bin0, bin0 + delta));
+		final int last = (int) Math.ceil(Math.max(bin0, bin0 + delta));
+		for (int k = first; k <= last; k++) {
+			final int bin = k & binMask;
+			final float dx = cos[bin];
+			final float dy = sin[bin];
+
+			// intersect the ray of the bin with the edge
+			final float denominator = dx * ey - dy * ex;
+			if (denominator == 0) {
+				continue;
+			}
+			final float t = (x0 * ey - y0 * ex) / denominator;
+			final float s = (x0 * dy - y0 * dx) / denominator;
+			if (t > 0 && s >= -0.01f && s <= 1.01f && t < depth[bin]) {
+				depth[bin] = t;
+			}
+		}
+	}
+
+	/** Rasterizes the circle with the given center relative to the light. */
+	private void circle(final float centerX, final float centerY, final float radius) {
+		final float distSq = centerX * centerX + centerY * centerY;
+		if (distSq <= radius * radius) {
+			// the light is inside of the circle
+			Arrays.fill(depth, 0);
+			return;
+		}
+
+		final float dist = (float) Math.sqrt(distSq);
+		final float halfAngle = (float) Math.asin(radius / dist);
+		final float center = toBin(centerX, centerY);
+		final float halfBins = halfAngle / (float) (Math.PI * 2) * bins;
+
+		final int first = (int) Math.floor(center - halfBins);
+		final int last = (int) Math.ceil(center + halfBins);
+		for (int k = first; k <= last; k++) {
+			final int bin = k & binMask;
+
+			// the distance along the ray to the near side of the circle
+			final float along = cos[bin] * centerX + sin[bin] * centerY;
+			final float across = cos[bin] * centerY - sin[bin] * centerX;
+			final float inside = radius * radius - across * across;
+			if (along > 0 && inside >= 0) {
+				final float t = along - (float) Math.sqrt(inside);
+				if (t < depth[bin]) {
+					depth[bin] = t;
+				}
+			}
+		}
+	}
+
+	/** Returns the fractional bin of the direction (x, y), where the center of bin i is at i. */
+	private float toBin(final float x, final float y) {
+		return toBin(x, y, bins);
+	}
+
+	private static float toBin(final float x, final float y, final int bins) {
+		return (float) ((Math.atan2(y, x) + Math.PI) / (Math.PI * 2) * bins) - 0.5f;
+	}
+
+	private double binAngle(final int bin) {
+		return (bin + 0.5) / bins * Math.PI * 2 - Math.PI;
+	}
+
+	/** The bin and distance of each texel of a light texture, relative to the center of the texture. */
+	private static final class Lookup {
+		final int size;
+		final int[] binOf;
+		final float[] distOf;
+
+		Lookup(final int size, final int bins) {
+			this.size = size;
+			binOf = new int[size * size];
+			distOf = new float[size * size];
+			final float center = size / 2f;
+			for (int ty = 0; ty < size; ty++) {
+				for (int tx = 0; tx < size; tx++) {
+					final float dx = tx + 0.5f - center;
+					final float dy = ty + 0.5f - center;
+					binOf[ty * size + tx] = Math.round(toBin(dx, dy, bins)) & bins - 1;
+					distOf[ty * size + tx] = (float) Math.sqrt(dx * dx + dy * dy);
+				}
+			}
+		}
+	}
+}
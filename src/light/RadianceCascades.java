@@ -0,0 +1,434 @@
+package light;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import main.Constants;
+import utils.GraphicsUtils;
+
+/**
+ * One bounce of indirect light computed with radiance cascades. The occluders lit by the direct lightmap become
+ * emitters on a coarse grid, and hierarchical grids of probes gather their light. Each cascade level has half the probe
+ * density, four times the directions and four times the ray interval of the level below it, so every level costs about
+ * the same. The intervals are ray marched through the occluders' {@link DistanceField}, then merged from the top level
+ * down, and the irradiance of the lowest level is added to the lightmap.
+ *
+ * The ray marching of all levels, and each merge step, are split into row bands which run on a ForkJoinPool.
+ */
+public class RadianceCascades {
+	/** The amount of probe rows a task handles before it splits. */
+	private static final int ROWS_PER_TASK = 4;
+
+	private final ForkJoinPool pool;
+	private final int scale;
+	private final int baseDirections;
+	private final float baseInterval;
+
+	/** The size of the emission grid and of the lowest probe level, in cells. */
+	private int columns;
+	private int rows;
+
+	/** The premultiplied light each occluder cell re-emits, 3 floats per cell, and whether a cell is occluded. */
+	private float[] emission = new float[0];
+	private boolean[] occluded = new boolean[0];
+
+	/** The levels of the cascade, lowest first. */
+	private final List<Level> levels = new ArrayList<>();
+
+	/** The irradiance of each cell, 3 floats per cell. */
+	private float[] irradiance = new float[0];
+
+	private DistanceField field;
+
+	/** A grid of probes, each with a radiance and a visibility per direction. */
+	private static final class Level {
+		final int spacing;
+		final int columns;
+		final int rows;
+		final int directions;
+		final float start;
+		final float end;
+		final float[] cos;
+		final float[] sin;
+
+		/** The radiance of each ray, 3 floats per ray, then merged with the levels above. */
+		final float[] radiance;
+		/** 1 if the ray hit nothing in its interval, 0 otherwise. */
+		final float[] visibility;
+
+		Level(final int spacing, final int columns, final int rows, final int directions, final float start, final float end) {
+			this.spacing = spacing;
+			this.columns = columns;
+			this.rows = rows;
+			this.directions = directions;
+			this.start = start;
+			this.end = end;
+
+			cos = new float[directions];
+			sin = new float[directions];
+			for (int k = 0; k < directions; k++) {
+				final double angle = (k + 0.5) * Math.PI * 2 / directions;
+				cos[k] = (float) Math.cos(angle);
+				sin[k] = (float) Math.sin(angle);
+			}
+
+			radiance = new float[columns * rows * directions * 3];
+			visibility = new float[columns * rows * directions];
+		}
+	}
+
+	/**
+	 * @param pool
+	 *            the pool to march and merge the cascades on
+	 * @param scale
+	 *            the size in pixels of a cell of the lowest level
+	 * @param baseDirections
+	 *            the amount of directions of each probe of the lowest level
+	 * @param baseInterval
+	 *            the length in cells of the rays of the lowest level
+	 */
+	public RadianceCascades(final ForkJoinPool pool, final int scale, final int baseDirections, final float baseInterval) {
+		this.pool = pool;
+		this.scale = scale;
+		this.baseDirections = baseDirections;
+		this.baseInterval = baseInterval;
+	}
+
+	/**
+	 * Computes the indirect light of the scene.
+	 *
+	 * @param occluders
+	 *            the occluders, which light bounces off of
+	 * @param lightmap
+	 *            the INT_ARGB_PRE pixels of the direct light
+	 * @param width
+	 *            the width of the lightmap
+	 * @param height
+	 *            the height of the lightmap
+	 */
+	public void update(final OccluderStore occluders, final int[] lightmap, final int width, final int height) {
+		field = occluders.getDistanceField();
+		field.update(width, height);
+		resize((width + scale - 1) / scale, (height + scale - 1) / scale);
+
+		buildEmission(lightmap, width, height);
+
+		// every ray of every level is independent
+		final List<ForkJoinTask<?>> marches = new ArrayList<>();
+		for (final Level level : levels) {
+			marches.add(new RowTask(level, null, 0, level.rows));
+		}
+		for (final ForkJoinTask<?> march : marches) {
+			pool.execute(march);
+		}
+		for (final ForkJoinTask<?> march : marches) {
+			march.join();
+		}
+
+		// each level gathers what its rays didn't hit from the merged level above
+		for (int i = levels.size() - 2; i >= 0; i--) {
+			pool.invoke(new RowTask(levels.get(i), levels.get(i + 1), 0, levels.get(i).rows));
+		}
+
+		final Level lowest = levels.get(0);
+		for (int cell = 0; cell < columns * rows; cell++) {
+			float r = 0, g = 0, b = 0;
+			for (int k = 0; k < lowest.directions; k++) {
+				final int ray = (cell * lowest.directions + k) * 3;
+				r += lowest.radiance[ray];
+				g += lowest.radiance[ray + 1];
+				b += lowest.radiance[ray + 2];
+			}
+			irradiance[cell * 3] = r / lowest.directions;
+			irradiance[cell * 3 + 1] = g / lowest.directions;
+			irradiance[cell * 3 + 2] = b / lowest.directions;
+		}
+	}
+
+	/**
+	 * Adds the indirect light to the pixels, interpolating it between cells.
+	 *
+	 * @param intensity
+	 *            how strongly the indirect light is added
+	 */
+	public void draw(final int[] pixels, final int width, final int height, final float intensity) {
+		pool.invoke(new DrawTask(pixels, width, 0, height, intensity));
+	}
+
+	/** Returns the irradiance of the cell at (column, row) into rgb. */
+	public void getIrradiance(final int column, final int row, final float[] rgb) {
+		final int cell = (row * columns + column) * 3;
+		rgb[0] = irradiance[cell];
+		rgb[1] = irradiance[cell + 1];
+		rgb[2] = irradiance[cell + 2];
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	private void drawRows(final int[] pixels, final int width, final int from, final int to, final float intensity) {
+		for (int y = from; y < to; y++) {
+			final float fy = Math.max(0, Math.min(rows - 1, (y + 0.5f) / scale - 0.5f));
+			final int y0 = (int) fy;
+			final int y1 = Math.min(y0 + 1, rows - 1);
+			final float wy = fy - y0;
+
+			for (int x = 0; x < width; x++) {
+				final float fx = Math.max(0, Math.min(columns - 1, (x + 0.5f) / scale - 0.5f));
+				final int x0 = (int) fx;
+				final int x1 = Math.min(x0 + 1, columns - 1);
+				final float wx = fx - x0;
+
+				final int a = (y0 * columns + x0) * 3;
+				final int b = (y0 * columns + x1) * 3;
+				final int c = (y1 * columns + x0) * 3;
+				final int d = (y1 * columns + x1) * 3;
+				final int red = (int) (intensity * bilinear(irradiance[a], irradiance[b], irradiance[c], irradiance[d], wx, wy));
+				final int green = (int) (intensity * bilinear(irradiance[a + 1], irradiance[b + 1], irradiance[c + 1], irradiance[d + 1], wx, wy));
+				final int blue = (int) (intensity * bilinear(irradiance[a + 2], irradiance[b + 2], irradiance[c + 2], irradiance[d + 2], wx, wy));
+				if (red > 0 || green > 0 || blue > 0) {
+					pixels[y * width + x] = GraphicsUtils.addLight(pixels[y * width + x], red, green, blue);
+				}
+			}
+		}
+	}
+
+	/** Rebuilds the levels when the size of the grid changes. */
+	private void resize(final int newColumns, final int newRows) {
+		if (newColumns == columns && newRows == rows) {
+			return;
+		}
+		columns = newColumns;
+		rows = newRows;
+		emission = new float[columns * rows * 3];
+		occluded = new boolean[columns * rows];
+		irradiance = new float[columns * rows * 3];
+
+		// add levels until the rays reach across the whole grid
+		levels.clear();
+		final float diagonal = (float) Math.sqrt(columns * columns + rows * rows);
+		float start = 0;
+		float length = baseInterval;
+		int spacing = 1;
+		int directions = baseDirections;
+		do {
+			levels.add(new Level(spacing, (columns + spacing - 1) / spacing, (rows + spacing - 1) / spacing, directions, start, start + length));
+			start += length;
+			length *= 4;
+			spacing *= 2;
+			directions *= 4;
+		} while (start < diagonal);
+	}
+
+	/**
+	 * Marks the occluded cells, and lets each of them re-emit the direct light falling on the free cells next to it.
+	 */
+	private void buildEmission(final int[] lightmap, final int width, final int height) {
+		final int step = Math.max(1, Constants.SDF_CELL_SIZE);
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				// a cell is occluded if any of the field's samples inside of it is
+				boolean hit = false;
+				for (int y = row * scale; y < (row + 1) * scale && !hit; y += step) {
+					for (int x = column * scale; x < (column + 1) * scale && !hit; x += step) {
+						hit = field.sample(x, y) == 0;
+					}
+				}
+				occluded[row * columns + column] = hit;
+			}
+		}
+
+		final int[] dx = { -1, 1, 0, 0 };
+		final int[] dy = { 0, 0, -1, 1 };
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				final int cell = row * columns + column;
+				float r = 0, g = 0, b = 0;
+				int lit = 0;
+				if (occluded[cell]) {
+					for (int n = 0; n < 4; n++) {
+						final int nx = column + dx[n];
+						final int ny = row + dy[n];
+						if (nx < 0 || ny < 0 || nx >= columns || ny >= rows || occluded[ny * columns + nx]) {
+							continue;
+						}
+
+						final int px = Math.min(width - 1, nx * scale + scale / 2);
+						final int py = Math.min(height - 1, ny * scale + scale / 2);
+						// premultiplied, so already what the pixel adds to the scene
+						final int pixel = lightmap[py * width + px];
+						r += pixel >> 16 & 0xff;
+						g += pixel >> 8 & 0xff;
+						b += pixel & 0xff;
+						lit++;
+					}
+				}
+				final float albedo = lit == 0 ? 0 : Constants.GI_ALBEDO / lit;
+				emission[cell * 3] = r * albedo;
+				emission[cell * 3 + 1] = g * albedo;
+				emission[cell * 3 + 2] = b * albedo;
+			}
+		}
+	}
+
+	/** Marches every ray of the probes in the rows of the level. */
+	private void march(final Level level, final int fromRow, final int toRow) {
+		final float pixelStart = level.start * scale;
+		final float pixelEnd = level.end * scale;
+		final int width = columns * scale;
+		final int height = rows * scale;
+
+		for (int py = fromRow; py < toRow; py++) {
+			for (int px = 0; px < level.columns; px++) {
+				final float originX = (px + 0.5f) * level.spacing * scale;
+				final float originY = (py + 0.5f) * level.spacing * scale;
+
+				for (int k = 0; k < level.directions; k++) {
+					final int ray = (py * level.columns + px) * level.directions + k;
+					level.radiance[ray * 3] = 0;
+					level.radiance[ray * 3 + 1] = 0;
+					level.radiance[ray * 3 + 2] = 0;
+					level.visibility[ray] = 1;
+
+					float t = pixelStart;
+					while (t < pixelEnd) {
+						final float x = originX + level.cos[k] * t;
+						final float y = originY + level.sin[k] * t;
+						if (x < 0 || y < 0 || x >= width || y >= height) {
+							break;
+						}
+
+						final float d = field.sample(x, y);
+						if (d == 0) {
+							final int cell = ((int) y / scale * columns + (int) x / scale) * 3;
+							level.radiance[ray * 3] = emission[cell];
+							level.radiance[ray * 3 + 1] = emission[cell + 1];
+							level.radiance[ray * 3 + 2] = emission[cell + 2];
+							level.visibility[ray] = 0;
+							break;
+						}
+						t += Math.max(d, scale / 2f);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds to each ray of the rows of the level what the level above sees past the end of it, for the rays which hit
+	 * nothing. The four directions above which split a direction are averaged, and interpolated between the four
+	 * nearest probes above.
+	 */
+	private void merge(final Level level, final Level upper, final int fromRow, final int toRow) {
+		final int branches = upper.directions / level.directions;
+
+		for (int py = fromRow; py < toRow; py++) {
+			final float fy = Math.max(0, Math.min(upper.rows - 1, (py + 0.5f) * level.spacing / upper.spacing - 0.5f));
+			final int y0 = (int) fy;
+			final int y1 = Math.min(y0 + 1, upper.rows - 1);
+			final float wy = fy - y0;
+
+			for (int px = 0; px < level.columns; px++) {
+				final float fx = Math.max(0, Math.min(upper.columns - 1, (px + 0.5f) * level.spacing / upper.spacing - 0.5f));
+				final int x0 = (int) fx;
+				final int x1 = Math.min(x0 + 1, upper.columns - 1);
+				final float wx = fx - x0;
+
+				final int a = y0 * upper.columns + x0;
+				final int b = y0 * upper.columns + x1;
+				final int c = y1 * upper.columns + x0;
+				final int d = y1 * upper.columns + x1;
+
+				for (int k = 0; k < level.directions; k++) {
+					final int ray = (py * level.columns + px) * level.directions + k;
+					if (level.visibility[ray] == 0) {
+						continue;
+					}
+
+					for (int channel = 0; channel < 3; channel++) {
+						float sum = 0;
+						for (int branch = k * branches; branch < (k + 1) * branches; branch++) {
+							sum += bilinear(upper.radiance[(a * upper.directions + branch) * 3 + channel], upper.radiance[(b * upper.directions + branch) * 3 + channel], upper.radiance[(c * upper.directions + branch) * 3 + channel], upper.radiance[(d * upper.directions + branch) * 3 + channel], wx, wy);
+						}
+						level.radiance[ray * 3 + channel] += sum / branches;
+					}
+				}
+			}
+		}
+	}
+
+	private static float bilinear(final float a, final float b, final float c, final float d, final float wx, final float wy) {
+		final float top = a + (b - a) * wx;
+		final float bottom = c + (d - c) * wx;
+		return top + (bottom - top) * wy;
+	}
+
+	/**
+	 * Marches a band of probe rows of a level, or merges it with the level above if there is one, splitting the band
+	 * in two until it is small enough.
+	 */
+	private final class RowTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Level level;
+		private final Level upper;
+		private final int fromRow;
+		private final int toRow;
+
+		RowTask(final Level level, final Level upper, final int fromRow, final int toRow) {
+			this.level = level;
+			this.upper = upper;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+		}
+
+		@Override
+		protected void compute() {
+			if (toRow - fromRow > ROWS_PER_TASK) {
+				final int middle = (fromRow + toRow) / 2;
+				invokeAll(new RowTask(level, upper, fromRow, middle), new RowTask(level, upper, middle, toRow));
+			} else if (upper != null) {
+				merge(level, upper, fromRow, toRow);
+			} else {
+				march(level, fromRow, toRow);
+			}
+		}
+	}
+
+	/** Adds the indirect light to a band of pixel rows, splitting it in two until it is small enough. */
+	private final class DrawTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int[] pixels;
+		private final int width;
+		private final int fromRow;
+		private final int toRow;
+		private final float intensity;
+
+		DrawTask(final int[] pixels, final int width, final int fromRow, final int toRow, final float intensity) {
+			this.pixels = pixels;
+			this.width = width;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+			this.intensity = intensity;
+		}
+
+		@Override
+		protected void compute() {
+			if (toRow - fromRow > ROWS_PER_TASK * scale) {
+				final int middle = (fromRow + toRow) / 2;
+				invokeAll(new DrawTask(pixels, width, fromRow, middle, intensity), new DrawTask(pixels, width, middle, toRow, intensity));
+			} else {
+				drawRows(pixels, width, fromRow, toRow, intensity);
+			}
+		}
+	}
+}
@@ -0,0 +1,340 @@
+package light;
+
+import java.util.Arrays;
+
+import utils.GraphicsUtils;
+
+/**
+ * A reusable coverage mask which shadow quads are rasterized into with a scanline polygon filler. Each byte holds how
+ * much of a pixel is in shadow, from 0 (lit) to 255 (fully shadowed). A light texture is then blitted through the mask
+ * straight into the pixels of the lightmap, so no {@link java.awt.geom.Area} or clip path is needed.
+ *
+ * The mask only covers the region of the current light clipped to the target, so it takes no more memory than the
+ * light's texture, and one mask can be shared by all the sub-lights of a {@link SmoothLight}.
+ */
+public class ShadowMask {
+	/** The amount of sub-scanlines per pixel row when antialiasing. */
+	private static final int SUBSAMPLES = 4;
+
+	/** The amount of steps of the penumbra ramp. */
+	private static final int RAMP_SIZE = 256;
+
+	/**
+	 * The part of a disk hidden behind a line at t radii from its center, towards the hidden side, for t from -1 to 1.
+	 * This is the area of the circular segment, which gives the smooth ramp across a penumbra.
+	 */
+	private static final float[] RAMP = new float[RAMP_SIZE + 1];
+	static {
+		for (int i = 0; i <= RAMP_SIZE; i++) {
+			final double t = i * 2.0 / RAMP_SIZE - 1;
+			RAMP[i] = (float) (1 - (Math.acos(t) - t * Math.sqrt(1 - t * t)) / Math.PI);
+		}
+	}
+
+	private final boolean antialias;
+
+	/** The width of the target. */
+	private int width;
+
+	/** The coverage of the region of the current light, row by row, the width of the region apart. */
+	private int stride;
+	private byte[] coverage = new byte[0];
+
+	/** The coverage of the row being rasterized from minX, before it is merged into the mask. */
+	private int[] row = new int[0];
+
+	/** The edge crossings of the sub-scanline being rasterized. */
+	private final float[] crossings = new float[4];
+
+	/** The region of the current light, clipped to the mask. The maximums are exclusive. */
+	private int minX, minY, maxX, maxY;
+
+	/**
+	 * @param antialias
+	 *            whether to compute 8 bit coverage for the edges of each quad, or only test the center of each pixel
+	 */
+	public ShadowMask(final boolean antialias) {
+		this.antialias = antialias;
+	}
+
+	/**
+	 * Prepares the mask for drawing the light onto a target of the given size, and clears the region the light covers.
+	 */
+	public void reset(final Light light, final int width, final int height) {
+		final int x = (int) (light.getX() - light.getRadius());
+		final int y = (int) (light.getY() - light.getRadius());
+		minX = Math.max(0, x);
+		minY = Math.max(0, y);
+		maxX = Math.min(width, x + light.image.getWidth());
+		maxY = Math.min(height, y + light.image.getHeight());
+		this.width = width;
+		if (!isVisible()) {
+			return;
+		}
+
+		stride = maxX - minX;
+		final int size = stride * (maxY - minY);
+		if (size > coverage.length) {
+			coverage = new byte[size];
+		}
+		if (stride > row.length) {
+			row = new int[stride];
+		}
+		Arrays.fill(coverage, 0, size, (byte) 0);
+	}
+
+	/** Returns the index in the coverage of the pixel at x = 0 in the row y of the target. */
+	private int offsetOf(final int y) {
+		return (y - minY) * stride - minX;
+	}
+
+	/** Returns whether the current light is at least partly inside the target. */
+	public boolean isVisible() {
+		return minX < maxX && minY < maxY;
+	}
+
+	/** Rasterizes all the quads into the mask. */
+	public void fill(final ShadowQuads quads) {
+		if (!isVisible()) {
+			return;
+		}
+
+		final float[] coords = quads.getCoords();
+		for (int i = 0; i < quads.size(); i++) {
+			fillQuad(coords, i * ShadowQuads.STRIDE);
+		}
+	}
+
+	/**
+	 * Rasterizes the penumbra wedges of an area light into the mask. Each quad starts with the silhouette points A and B
+	 * of an occluder as seen from the center of the light, and bounds everything the occluder can shadow. The coverage
+	 * of each pixel in it is how much of the light's disk the occluder hides from that pixel.
+	 *
+	 * @param lightRadius
+	 *            the radius of the light's source, not of its texture
+	 */
+	public void fillWedges(final ShadowQuads wedges, final float lightX, final float lightY, final float lightRadius) {
+		if (!isVisible()) {
+			return;
+		}
+
+		final float[] coords = wedges.getCoords();
+		for (int i = 0; i < wedges.size(); i++) {
+			fillWedge(coords, i * ShadowQuads.STRIDE, lightX, lightY, lightRadius);
+		}
+	}
+
+	/**
+	 * Blits the light's texture into the target pixels, scaling each texel by how much of it is lit.
+	 *
+	 * @param pixels
+	 *            the INT_ARGB_PRE pixels of the target, of the size given to {@link #reset(Light, int, int)}
+	 */
+	public void blit(final Light light, final int[] pixels) {
+		final int[] texture = light.getPixels();
+		final int textureWidth = light.image.getWidth();
+		final int x = (int) (light.getX() - light.getRadius());
+		final int y = (int) (light.getY() - light.getRadius());
+		final int intensity = Math.round(light.getIntensity() * 255);
+
+		for (int j = minY; j < maxY; j++) {
+			final int offset = j * width;
+			final int maskOffset = offsetOf(j);
+			final int textureOffset = (j - y) * textureWidth - x;
+			for (int i = minX; i < maxX; i++) {
+				final int src = texture[textureOffset + i];
+				final int lit = GraphicsUtils.div255((255 - (coverage[maskOffset + i] & 0xFF)) * intensity);
+				if (src != 0 && lit != 0) {
+					pixels[offset + i] = GraphicsUtils.blendLight(pixels[offset + i], src, lit);
+				}
+			}
+		}
+	}
+
+	/** Rasterizes the quad starting at offset, merging it into the mask by keeping the highest coverage. */
+	private void fillQuad(final float[] coords, final int offset) {
+		float quadMinY = Float.POSITIVE_INFINITY;
+		float quadMaxY = Float.NEGATIVE_INFINITY;
+		for (int i = 1; i < ShadowQuads.STRIDE; i += 2) {
+			quadMinY = Math.min(quadMinY, coords[offset + i]);
+			quadMaxY = Math.max(quadMaxY, coords[offset + i]);
+		}
+
+		final int startY = Math.max(minY, (int) Math.floor(quadMinY));
+		final int endY = Math.min(maxY, (int) Math.ceil(quadMaxY));
+		final int samples = antialias ? SUBSAMPLES : 1;
+
+		for (int y = startY; y < endY; y++) {
+			int rowMinX = maxX;
+			int rowMaxX = minX;
+
+			for (int s = 0; s < samples; s++) {
+				final float sampleY = y + (s + 0.5f) / samples;
+
+				// find where the edges of the quad cross this sub-scanline
+				int n = 0;
+				for (int i = 0, j = 3; i < 4; j = i++) {
+					final float xi = coords[offset + i * 2];
+					final float yi = coords[offset + i * 2 + 1];
+					final float xj = coords[offset + j * 2];
+					final float yj = coords[offset + j * 2 + 1];
+					if (yi > sampleY != yj > sampleY) {
+						crossings[n++] = xi + (sampleY - yi) * (xj - xi) / (yj - yi);
+					}
+				}
+				sortCrossings(n);
+
+				for (int k = 0; k + 1 < n; k += 2) {
+					final float spanStart = Math.max(minX, crossings[k]);
+					final float spanEnd = Math.min(maxX, crossings[k + 1]);
+					if (spanStart >= spanEnd) {
+						continue;
+					}
+
+					if (antialias) {
+						fillSpan(spanStart, spanEnd, 256 / SUBSAMPLES);
+						rowMinX = Math.min(rowMinX, (int) spanStart);
+						rowMaxX = Math.max(rowMaxX, Math.min(maxX, (int) Math.ceil(spanEnd)));
+					} else {
+						// only pixels whose centers are inside the span
+						final int start = (int) Math.ceil(spanStart - 0.5f);
+						final int end = Math.min(maxX, (int) Math.ceil(spanEnd - 0.5f));
+						for (int i = start; i < end; i++) {
+							row[i - minX] = 255;
+						}
+						rowMinX = Math.min(rowMinX, start);
+						rowMaxX = Math.max(rowMaxX, end);
+					}
+				}
+			}
+
+			// merge the row into the mask and clear it for the next one
+			final int rowOffset = offsetOf(y);
+			for (int i = rowMinX; i < rowMaxX; i++) {
+				final int value = Math.min(255, row[i - minX]);
+				if (value > (coverage[rowOffset + i] & 0xFF)) {
+					coverage[rowOffset + i] = (byte) value;
+				}
+				row[i - minX] = 0;
+			}
+		}
+	}
+
+	/** Rasterizes the wedge starting at offset, merging it into the mask by keeping the highest coverage. */
+	private void fillWedge(final float[] coords, final int offset, final float lightX, final float lightY, final float lightRadius) {
+		final float ax = coords[offset], ay = coords[offset + 1];
+		final float bx = coords[offset + 2], by = coords[offset + 3];
+
+		// only pixels on the other side of AB than the light are behind the occluder
+		final float lightSide = (bx - ax) * (lightY - ay) - (by - ay) * (lightX - ax);
+		if (lightSide == 0) {
+			return;
+		}
+
+		float quadMinY = Float.POSITIVE_INFINITY;
+		float quadMaxY = Float.NEGATIVE_INFINITY;
+		for (int i = 1; i < ShadowQuads.STRIDE; i += 2) {
+			quadMinY = Math.min(quadMinY, coords[offset + i]);
+			quadMaxY = Math.max(quadMaxY, coords[offset + i]);
+		}
+
+		final int startY = Math.max(minY, (int) Math.floor(quadMinY));
+		final int endY = Math.min(maxY, (int) Math.ceil(quadMaxY));
+
+		for (int y = startY; y < endY; y++) {
+			// the coverage is smooth, so sampling the pixel centers is enough
+			final float sampleY = y + 0.5f;
+
+			int n = 0;
+			for (int i = 0, j = 3; i < 4; j = i++) {
+				final float xi = coords[offset + i * 2];
+				final float yi = coords[offset + i * 2 + 1];
+				final float xj = coords[offset + j * 2];
+				final float yj = coords[offset + j * 2 + 1];
+				if (yi > sampleY != yj > sampleY) {
+					crossings[n++] = xi + (sampleY - yi) * (xj - xi) / (yj - yi);
+				}
+			}
+			sortCrossings(n);
+
+			final int rowOffset = offsetOf(y);
+			for (int k = 0; k + 1 < n; k += 2) {
+				final int start = Math.max(minX, (int) Math.ceil(crossings[k] - 0.5f));
+				final int end = Math.min(maxX, (int) Math.ceil(crossings[k + 1] - 0.5f));
+
+				for (int i = start; i < end; i++) {
+					final float sampleX = i + 0.5f;
+					if (((bx - ax) * (sampleY - ay) - (by - ay) * (sampleX - ax)) * lightSide >= 0) {
+						continue;
+					}
+
+					// the occluder hides the part of the disk between the lines through A and B
+					final float hidden = hidden(sampleX, sampleY, ax, ay, bx, by, lightX, lightY, lightRadius)
+							+ hidden(sampleX, sampleY, bx, by, ax, ay, lightX, lightY, lightRadius) - 1;
+					final int value = (int) (hidden * 255);
+					if (value > (coverage[rowOffset + i] & 0xFF)) {
+						coverage[rowOffset + i] = (byte) value;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the part of the light's disk which is on the other vertex's side of the line from the pixel through the
+	 * vertex.
+	 */
+	private static float hidden(final float x, final float y, final float vertexX, final float vertexY, final float otherX, final float otherY, final float lightX, final float lightY, final float lightRadius) {
+		final float dx = vertexX - x;
+		final float dy = vertexY - y;
+		final float side = dx * (otherY - y) - dy * (otherX - x);
+		if (side == 0 || dx == 0 && dy == 0) {
+			return 0;
+		}
+
+		// the distance of the light's center from the line in radii, positive towards the other vertex
+		float t = (dx * (lightY - y) - dy * (lightX - x)) / ((float) Math.sqrt(dx * dx + dy * dy) * lightRadius);
+		if (side < 0) {
+			t = -t;
+		}
+
+		if (t >= 1) {
+			return 1;
+		} else if (t <= -1) {
+			return 0;
+		}
+		return RAMP[(int) ((t + 1) * 0.5f * RAMP_SIZE + 0.5f)];
+	}
+
+	/** Adds weight times the covered fraction of each pixel of the span to the row. */
+	private void fillSpan(final float spanStart, final float spanEnd, final int weight) {
+		final int first = (int) spanStart;
+		final int last = (int) spanEnd;
+
+		if (first == last) {
+			row[first - minX] += (int) ((spanEnd - spanStart) * weight);
+			return;
+		}
+
+		row[first - minX] += (int) ((first + 1 - spanStart) * weight);
+		for (int i = first + 1; i < last; i++) {
+			row[i - minX] += weight;
+		}
+		if (last < maxX) {
+			row[last - minX] += (int) ((spanEnd - last) * weight);
+		}
+	}
+
+	/** Insertion sort of the first n crossings, there are at most four. */
+	private void sortCrossings(final int n) {
+		for (int i = 1; i < n; i++) {
+			final float value = crossings[i];
+			int j = i - 1;
+			while (j >= 0 && crossings[j] > value) {
+				crossings[j + 1] = crossings[j];
+				j--;
+			}
+			crossings[j + 1] = value;
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package light;
+
+/**
+ * The ways a {@link SmoothLight} can turn its shadows into a lit image.
+ */
+public enum ShadowMode {
+	/** Unions the shadow quads into an {@link java.awt.geom.Area} and draws each light clipped by it. */
+	AREA,
+	/** Rasterizes the shadow quads into a {@link ShadowMask} and blits each light through it. */
+	MASK,
+	/**
+	 * Rasterizes the occluder edges into a {@link PolarShadowMap} around the base light, and draws only that light with
+	 * soft edges sampled from the map.
+	 */
+	POLAR,
+	/**
+	 * Sphere traces each pixel towards the base light through the {@link DistanceField} of the occluders, which gives
+	 * continuous soft shadows without any sub-lights.
+	 */
+	SDF,
+	/**
+	 * Treats the base light as a disk and rasterizes one penumbra wedge per occluder into a {@link ShadowMask}, where
+	 * the coverage of each pixel is how much of the disk is hidden. Soft shadows in a single pass per light.
+	 */
+	WEDGE
+}
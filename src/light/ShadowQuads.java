@@ -0,0 +1,74 @@
+package light;
+
+import java.util.Arrays;
+
+/**
+ * The shadow quads of one light, stored as a flat array of coordinates. Each quad is the polygon A, B, D, C built by
+ * {@link SmoothLight#cut(OccluderStore)}, where A and B are the silhouette points of an occluder and C and D their
+ * projections away from the light.
+ */
+public class ShadowQuads {
+	/** The amount of floats used by one quad. */
+	public static final int STRIDE = 8;
+
+	private float[] coords = new float[STRIDE * 8];
+	private int size;
+
+	/** Adds the quad A, B, D, C. */
+	public void add(final float ax, final float ay, final float bx, final float by, final float dx, final float dy, final float cx, final float cy) {
+		if ((size + 1) * STRIDE > coords.length) {
+			coords = Arrays.copyOf(coords, coords.length * 2);
+		}
+
+		final int i = size * STRIDE;
+		coords[i] = ax;
+		coords[i + 1] = ay;
+		coords[i + 2] = bx;
+		coords[i + 3] = by;
+		coords[i + 4] = dx;
+		coords[i + 5] = dy;
+		coords[i + 6] = cx;
+		coords[i + 7] = cy;
+		size++;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/** Returns the amount of quads. */
+	public int size() {
+		return size;
+	}
+
+	/** Returns the live coordinate array, quad i starting at i * STRIDE. */
+	public float[] getCoords() {
+		return coords;
+	}
+
+	/** Returns whether the point is inside any of the quads. */
+	public boolean contains(final float x, final float y) {
+		for (int i = 0; i < size; i++) {
+			if (contains(coords, i * STRIDE, x, y)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Returns whether the point is inside the quad starting at offset, using the even-odd rule. */
+	static boolean contains(final float[] coords, final int offset, final float x, final float y) {
+		boolean inside = false;
+		for (int i = 0, j = 3; i < 4; j = i++) {
+			final float xi = coords[offset + i * 2];
+			final float yi = coords[offset + i * 2 + 1];
+			final float xj = coords[offset + j * 2];
+			final float yj = coords[offset + j * 2 + 1];
+
+			if (yi > y != yj > y && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+				inside = !inside;
+			}
+		}
+		return inside;
+	}
+}
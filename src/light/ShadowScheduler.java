@@ -0,0 +1,172 @@
+package light;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spreads the shadow cuts of many moving lights over several frames, so a frame never spends much more than a time
+ * budget on them. The lights which need a cut are ordered by how much of the screen they cover, how close they are to
+ * the camera and how many frames they have been waiting, and are cut in that order until the budget runs out. The
+ * remaining lights keep their last shadows until a later frame.
+ *
+ * A light which was never cut, or has waited for the maximum amount of frames, is always cut so that no shadow gets
+ * too stale.
+ */
+public class ShadowScheduler {
+	private final long budgetNanos;
+	private final int maxStaleFrames;
+
+	/** What is remembered about each light between frames. */
+	private final Map<SmoothLight, State> states = new IdentityHashMap<>();
+
+	/** Finds the occluders each light can reach, so a cut doesn't scan them all. */
+	private final SweepAndPrune broadphase = new SweepAndPrune();
+
+	/** The lights waiting for a cut this frame, re-used between frames. */
+	private final List<State> pending = new ArrayList<>();
+
+	/** The statistics of the last frame. */
+	private int cutCount;
+	private int deferredCount;
+	private int maxStaleness;
+	private int reusedCount;
+	private long usedNanos;
+
+	/**
+	 * @param budgetMillis
+	 *            the time in milliseconds to spend on cuts each frame
+	 * @param maxStaleFrames
+	 *            the amount of frames after which a light is cut regardless of the budget
+	 */
+	public ShadowScheduler(final float budgetMillis, final int maxStaleFrames) {
+		budgetNanos = (long) (budgetMillis * 1e6);
+		this.maxStaleFrames = maxStaleFrames;
+	}
+
+	/**
+	 * Cuts the lights which need it, the most important ones first, until the budget is used.
+	 *
+	 * @param cameraX
+	 *            the x of the point the player is looking at
+	 * @param cameraY
+	 *            the y of the point the player is looking at
+	 * @param screen
+	 *            the visible part of the scene
+	 */
+	public void cut(final List<SmoothLight> lights, final OccluderStore occluders, final float cameraX, final float cameraY, final Rectangle screen) {
+		final float screenArea = Math.max(1, (float) screen.width * screen.height);
+		final float diagonal = (float) Math.max(1, Math.hypot(screen.width, screen.height));
+
+		pending.clear();
+		for (final State state : states.values()) {
+			state.seen = false;
+		}
+		for (int i = 0; i < lights.size(); i++) {
+			final SmoothLight light = lights.get(i);
+			State state = states.get(light);
+			if (state == null) {
+				state = new State();
+				state.light = light;
+				states.put(light, state);
+			}
+			state.seen = true;
+			state.index = i;
+			if (!light.needsCut(occluders)) {
+				state.staleFrames = 0;
+				continue;
+			}
+
+			final Rectangle covered = light.getBounds().intersection(screen);
+			final float coverage = covered.isEmpty() ? 0 : (float) covered.width * covered.height / screenArea;
+			final float distance = (float) Math.hypot(light.getCenter().getX() - cameraX, light.getCenter().getY() - cameraY) / diagonal;
+			state.priority = (coverage + 1 / (1 + distance)) * (1 + state.staleFrames);
+			pending.add(state);
+		}
+		states.values().removeIf(state -> !state.seen);
+
+		pending.sort((a, b) -> Float.compare(b.priority, a.priority));
+		if (!pending.isEmpty()) {
+			broadphase.update(lights, occluders);
+		}
+
+		cutCount = 0;
+		deferredCount = 0;
+		maxStaleness = 0;
+		reusedCount = 0;
+		final long start = System.nanoTime();
+		for (int i = 0; i < pending.size(); i++) {
+			final State state = pending.get(i);
+			final long elapsed = System.nanoTime() - start;
+			final boolean mustCut = !state.light.hasShadows() || state.staleFrames >= maxStaleFrames;
+
+			// the first light is always cut, so the budget can never stall every light
+			if (!mustCut && cutCount > 0 && elapsed + state.lastCost > budgetNanos) {
+				state.staleFrames++;
+				deferredCount++;
+				maxStaleness = Math.max(maxStaleness, state.staleFrames);
+				continue;
+			}
+
+			final long cutStart = System.nanoTime();
+			state.light.cut(occluders, broadphase.getCandidates(), broadphase.getStart(state.index), broadphase.getEnd(state.index));
+			state.lastCost = System.nanoTime() - cutStart;
+			reusedCount += state.light.getReusedSilhouetteCount();
+			state.staleFrames = 0;
+			cutCount++;
+		}
+		usedNanos = System.nanoTime() - start;
+	}
+
+	/** Returns how many frames the light has been waiting for a cut, 0 if its shadows are up to date. */
+	public int getStaleness(final SmoothLight light) {
+		final State state = states.get(light);
+		return state == null ? 0 : state.staleFrames;
+	}
+
+	/** Returns the amount of lights cut in the last frame. */
+	public int getCutCount() {
+		return cutCount;
+	}
+
+	/** Returns the amount of lights which needed a cut in the last frame but were deferred. */
+	public int getDeferredCount() {
+		return deferredCount;
+	}
+
+	/** Returns the most frames any deferred light of the last frame has been waiting. */
+	public int getMaxStaleness() {
+		return maxStaleness;
+	}
+
+	/** Returns how many silhouettes the cuts of the last frame reused from the cuts before. */
+	public int getReusedCount() {
+		return reusedCount;
+	}
+
+	/** Returns the time spent on cuts in the last frame, in milliseconds. */
+	public float getUsedMillis() {
+		return usedNanos / 1e6f;
+	}
+
+	/** Returns the broadphase, whose pairs are those of the last frame with a cut. */
+	public SweepAndPrune getBroadphase() {
+		return broadphase;
+	}
+
+	/** What is remembered about one light. */
+	private static final class State {
+		SmoothLight light;
+		/** The index of the light in the list this frame. */
+		int index;
+		/** The amount of frames the light has been waiting for a cut. */
+		int staleFrames;
+		/** How long the last cut of the light took. */
+		long lastCost;
+		float priority;
+		/** Whether the light was still in the list last frame, to forget the removed ones. */
+		boolean seen;
+	}
+}
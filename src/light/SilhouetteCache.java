@@ -0,0 +1,109 @@
+package light;
+
+import java.util.Arrays;
+
+/**
+ * Remembers which hull vertices were the silhouette of each polygon occluder in the last cut of a light. When the light
+ * moves but the occluders don't, most silhouettes stay on the same vertices, which can be checked with two edges each
+ * instead of scanning the whole hull again.
+ *
+ * The entries are kept in the order the occluders were cut, and are looked up in that same increasing order, so a
+ * lookup is a step of a cursor.
+ */
+public class SilhouetteCache {
+	/** The occluders and their version the entries were found for. */
+	private OccluderStore occluders;
+	private int version;
+
+	/** The entries of the last cut, looked up by the current one. */
+	private int[] previousOccluder = new int[16];
+	private int[] previousVertexA = new int[16];
+	private int[] previousVertexB = new int[16];
+	private int previousCount;
+	private int cursor;
+
+	/** The entries of the current cut. */
+	private int[] occluder = new int[16];
+	private int[] vertexA = new int[16];
+	private int[] vertexB = new int[16];
+	private int count;
+
+	/** How many silhouettes the last cut reused, and how many it had to scan for. */
+	private int reusedCount;
+	private int scannedCount;
+
+	/**
+	 * Starts a new cut against the occluders. The entries of the last cut are kept for lookups only if the occluders
+	 * haven't changed since, as the hull vertices are re-numbered when they do.
+	 */
+	public void begin(final OccluderStore occluders) {
+		int[] swap = previousOccluder;
+		previousOccluder = occluder;
+		occluder = swap;
+		swap = previousVertexA;
+		previousVertexA = vertexA;
+		vertexA = swap;
+		swap = previousVertexB;
+		previousVertexB = vertexB;
+		vertexB = swap;
+
+		final boolean isValid = occluders == this.occluders && occluders.getVersion() == version;
+		previousCount = isValid ? count : 0;
+		this.occluders = occluders;
+		version = occluders.getVersion();
+		cursor = 0;
+		count = 0;
+		reusedCount = 0;
+		scannedCount = 0;
+	}
+
+	/**
+	 * Returns the entry of the occluder from the last cut, or -1 if it had none. Occluders have to be looked up in
+	 * increasing order, an occluder before the last one looked up is never found.
+	 */
+	int lookup(final int index) {
+		while (cursor < previousCount && previousOccluder[cursor] < index) {
+			cursor++;
+		}
+		return cursor < previousCount && previousOccluder[cursor] == index ? cursor : -1;
+	}
+
+	/** Returns the hull vertex of the first silhouette point of the entry. */
+	int getVertexA(final int entry) {
+		return previousVertexA[entry];
+	}
+
+	/** Returns the hull vertex of the second silhouette point of the entry. */
+	int getVertexB(final int entry) {
+		return previousVertexB[entry];
+	}
+
+	/** Remembers the hull vertices of the occluder's silhouette for the next cut. */
+	void add(final int index, final int a, final int b, final boolean isReused) {
+		if (count == occluder.length) {
+			occluder = Arrays.copyOf(occluder, count * 2);
+			vertexA = Arrays.copyOf(vertexA, count * 2);
+			vertexB = Arrays.copyOf(vertexB, count * 2);
+		}
+		occluder[count] = index;
+		vertexA[count] = a;
+		vertexB[count] = b;
+		count++;
+
+		if (isReused) {
+			reusedCount++;
+		} else {
+			scannedCount++;
+		}
+	}
+
+	/** Returns how many silhouettes the last cut reused from the one before. */
+	public int getReusedCount() {
+		return reusedCount;
+	}
+
+	/** Returns how many silhouettes the last cut had to scan a hull for. */
+	public int getScannedCount() {
+		return scannedCount;
+	}
+}
@@ -0,0 +1,264 @@
+package light;
+
+import java.awt.geom.Line2D;
+
+/**
+ * Finds the two silhouette points of an occluder as seen from a light, which are the base of its shadow quad. Point A
+ * is on the left of the line from the light to the occluder's center and point B on the right, the same convention
+ * {@link SmoothLight#cut(OccluderStore)} uses for its shadow polygons.
+ *
+ * Circles, segments and boxes are solved in closed form. Polygons are solved on their {@link OccluderHulls hull}, where
+ * the silhouette points are the vertices between an edge facing the light and one facing away.
+ */
+public final class Silhouettes {
+
+	// Utility class, cannot instantiate
+	private Silhouettes() {
+	}
+
+	/**
+	 * Writes the silhouette of the occluder at index, as seen from (lightX, lightY), into out as { ax, ay, bx, by }.
+	 *
+	 * @return false if the light is inside the occluder, in which case no shadow quad can be built
+	 */
+	public static boolean find(final OccluderStore occluders, final int index, final float lightX, final float lightY, final float[] out) {
+		return find(occluders, null, index, lightX, lightY, out);
+	}
+
+	/**
+	 * Same as {@link #find(OccluderStore, int, float, float, float[])}, using the hulls of the occluders for polygons
+	 * when they are given.
+	 */
+	public static boolean find(final OccluderStore occluders, final OccluderHulls hulls, final int index, final float lightX, final float lightY, final float[] out) {
+		switch (occluders.getType(index)) {
+		case OccluderStore.CIRCLE:
+			return circle(occluders.getCenterX(index), occluders.getCenterY(index), occluders.getRadius(index), lightX, lightY, out);
+		case OccluderStore.SEGMENT:
+			return segment(occluders, index, lightX, lightY, out);
+		case OccluderStore.BOX:
+			return box(occluders, index, lightX, lightY, out);
+		default:
+			if (hulls != null && hull(occluders, hulls, index, lightX, lightY, out)) {
+				return true;
+			}
+			return polygon(occluders, index, lightX, lightY, out);
+		}
+	}
+
+	/**
+	 * Same as {@link #find(OccluderStore, OccluderHulls, int, float, float, float[])}, first trying the hull vertices
+	 * the cache remembers for the occluder, which are kept if they are still where the edges change from facing the
+	 * light to facing away. The hull silhouettes found are remembered in the cache for the next cut.
+	 */
+	public static boolean find(final OccluderStore occluders, final OccluderHulls hulls, final int index, final float lightX, final float lightY, final float[] out, final SilhouetteCache cache) {
+		if (cache == null || hulls == null || occluders.getType(index) != OccluderStore.POLYGON) {
+			return find(occluders, hulls, index, lightX, lightY, out);
+		}
+
+		final int entry = cache.lookup(index);
+		if (entry >= 0) {
+			final int a = cache.getVertexA(entry);
+			final int b = cache.getVertexB(entry);
+			// a convex hull has either no or two such vertices, so if both still are they are the silhouette
+			if (isTurn(hulls, index, a, lightX, lightY) && isTurn(hulls, index, b, lightX, lightY)) {
+				cache.add(index, a, b, true);
+				final float[] hullX = hulls.getHullX();
+				final float[] hullY = hulls.getHullY();
+				return order(occluders.getCenterX(index), occluders.getCenterY(index), lightX, lightY, hullX[a], hullY[a], hullX[b], hullY[b], out);
+			}
+		}
+
+		if (hull(occluders, hulls, index, lightX, lightY, out, cache)) {
+			return true;
+		}
+		return polygon(occluders, index, lightX, lightY, out);
+	}
+
+	/**
+	 * Finds the farthest away vertices on each side of the line from the light to the center, which are the vertices
+	 * with a line of sight to the light source.
+	 */
+	static boolean polygon(final OccluderStore occluders, final int index, final float lightX, final float lightY, final float[] out) {
+		final float[] vertexX = occluders.getVertexX();
+		final float[] vertexY = occluders.getVertexY();
+		final float centerX = occluders.getCenterX(index);
+		final float centerY = occluders.getCenterY(index);
+
+		// if A never gets set, it defaults to the center
+		out[0] = out[2] = centerX;
+		out[1] = out[3] = centerY;
+
+		float maxAdistSq = 0;
+		float maxBdistSq = 0;
+		final int end = occluders.getOffset(index) + occluders.getCount(index);
+		for (int j = occluders.getOffset(index); j < end; j++) {
+			final float x = vertexX[j];
+			final float y = vertexY[j];
+
+			final float newDistSqred = (float) Line2D.ptLineDistSq(lightX, lightY, centerX, centerY, x, y);
+
+			final boolean left = SmoothLight.isLeft(lightX, lightY, centerX, centerY, x, y);
+			if (maxAdistSq < newDistSqred && left) {
+				maxAdistSq = newDistSqred;
+				out[0] = x;
+				out[1] = y;
+			}
+			if (maxBdistSq < newDistSqred && !left) {
+				maxBdistSq = newDistSqred;
+				out[2] = x;
+				out[3] = y;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the two hull vertices where the edges change from facing the light to facing away from it. Returns false
+	 * if there aren't exactly two, which happens when the light is inside the hull or in line with an edge.
+	 */
+	static boolean hull(final OccluderStore occluders, final OccluderHulls hulls, final int index, final float lightX, final float lightY, final float[] out) {
+		return hull(occluders, hulls, index, lightX, lightY, out, null);
+	}
+
+	/** Same as {@link #hull(OccluderStore, OccluderHulls, int, float, float, float[])}, remembering the vertices. */
+	private static boolean hull(final OccluderStore occluders, final OccluderHulls hulls, final int index, final float lightX, final float lightY, final float[] out, final SilhouetteCache cache) {
+		final float[] hullX = hulls.getHullX();
+		final float[] hullY = hulls.getHullY();
+		final float[] normalX = hulls.getNormalX();
+		final float[] normalY = hulls.getNormalY();
+		final int start = hulls.getOffset(index);
+		final int count = hulls.getCount(index);
+		if (count < 2) {
+			return false;
+		}
+
+		int found = 0;
+		int first = 0, second = 0;
+		final int last = start + count - 1;
+		boolean previousFacing = normalX[last] * (lightX - hullX[last]) + normalY[last] * (lightY - hullY[last]) > 0;
+		for (int j = start; j <= last; j++) {
+			final boolean facing = normalX[j] * (lightX - hullX[j]) + normalY[j] * (lightY - hullY[j]) > 0;
+			if (facing != previousFacing) {
+				if (found == 0) {
+					first = j;
+				} else {
+					second = j;
+				}
+				found++;
+			}
+			previousFacing = facing;
+		}
+		if (found != 2) {
+			return false;
+		}
+
+		if (cache != null) {
+			cache.add(index, first, second, false);
+		}
+		return order(occluders.getCenterX(index), occluders.getCenterY(index), lightX, lightY, hullX[first], hullY[first], hullX[second], hullY[second], out);
+	}
+
+	/** Returns whether the edges on both sides of the hull vertex j differ in facing the light. */
+	private static boolean isTurn(final OccluderHulls hulls, final int index, final int j, final float lightX, final float lightY) {
+		final float[] hullX = hulls.getHullX();
+		final float[] hullY = hulls.getHullY();
+		final float[] normalX = hulls.getNormalX();
+		final float[] normalY = hulls.getNormalY();
+		final int start = hulls.getOffset(index);
+		final int previous = j == start ? start + hulls.getCount(index) - 1 : j - 1;
+		final boolean facing = normalX[j] * (lightX - hullX[j]) + normalY[j] * (lightY - hullY[j]) > 0;
+		return facing != normalX[previous] * (lightX - hullX[previous]) + normalY[previous] * (lightY - hullY[previous]) > 0;
+	}
+
+	/** The silhouette of a circle are the two points where the tangents from the light touch it. */
+	static boolean circle(final float centerX, final float centerY, final float radius, final float lightX, final float lightY, final float[] out) {
+		final float dx = lightX - centerX;
+		final float dy = lightY - centerY;
+		final float distSq = dx * dx + dy * dy;
+		if (distSq <= radius * radius) {
+			return false;
+		}
+
+		// the tangent points are at +-acos(r / d) from the direction to the light
+		final float dist = (float) Math.sqrt(distSq);
+		final float cos = radius / dist;
+		final float sin = (float) Math.sqrt(1 - cos * cos);
+		final float ux = dx / dist * radius;
+		final float uy = dy / dist * radius;
+
+		final float x1 = centerX + ux * cos - uy * sin;
+		final float y1 = centerY + ux * sin + uy * cos;
+		final float x2 = centerX + ux * cos + uy * sin;
+		final float y2 = centerY - ux * sin + uy * cos;
+
+		return order(centerX, centerY, lightX, lightY, x1, y1, x2, y2, out);
+	}
+
+	/** The silhouette of a segment are its end points. */
+	static boolean segment(final OccluderStore occluders, final int index, final float lightX, final float lightY, final float[] out) {
+		final float[] vertexX = occluders.getVertexX();
+		final float[] vertexY = occluders.getVertexY();
+		final int start = occluders.getOffset(index);
+
+		return order(occluders.getCenterX(index), occluders.getCenterY(index), lightX, lightY, vertexX[start], vertexY[start], vertexX[start + 1], vertexY[start + 1], out);
+	}
+
+	/**
+	 * The silhouette of a box are the two corners picked by which of the eight regions around the box the light is
+	 * in.
+	 */
+	static boolean box(final OccluderStore occluders, final int index, final float lightX, final float lightY, final float[] out) {
+		final float minX = occluders.getMinX(index);
+		final float minY = occluders.getMinY(index);
+		final float maxX = occluders.getMaxX(index);
+		final float maxY = occluders.getMaxY(index);
+
+		final int regionX = lightX < minX ? -1 : lightX > maxX ? 1 : 0;
+		final int regionY = lightY < minY ? -1 : lightY > maxY ? 1 : 0;
+
+		final float x1, y1, x2, y2;
+		if (regionX == 0 && regionY == 0) {
+			return false;
+		} else if (regionX == 0) {
+			// above or below, use the near edge
+			x1 = minX;
+			x2 = maxX;
+			y1 = y2 = regionY < 0 ? minY : maxY;
+		} else if (regionY == 0) {
+			// left or right, use the near edge
+			x1 = x2 = regionX < 0 ? minX : maxX;
+			y1 = minY;
+			y2 = maxY;
+		} else if (regionX == regionY) {
+			// top left or bottom right, use the other diagonal
+			x1 = maxX;
+			y1 = minY;
+			x2 = minX;
+			y2 = maxY;
+		} else {
+			// top right or bottom left
+			x1 = minX;
+			y1 = minY;
+			x2 = maxX;
+			y2 = maxY;
+		}
+
+		return order(occluders.getCenterX(index), occluders.getCenterY(index), lightX, lightY, x1, y1, x2, y2, out);
+	}
+
+	/** Stores the two points as A and B, depending on which side of the line from the light to the center they are. */
+	private static boolean order(final float centerX, final float centerY, final float lightX, final float lightY, final float x1, final float y1, final float x2, final float y2, final float[] out) {
+		if (SmoothLight.isLeft(lightX, lightY, centerX, centerY, x1, y1)) {
+			out[0] = x1;
+			out[1] = y1;
+			out[2] = x2;
+			out[3] = y2;
+		} else {
+			out[0] = x2;
+			out[1] = y2;
+			out[2] = x1;
+			out[3] = y1;
+		}
+		return true;
+	}
+}
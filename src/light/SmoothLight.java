@@ -1,18 +1,21 @@
 package light;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
+import java.awt.Composite;
 import java.awt.Graphics2D;
 import java.awt.Polygon;
+import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.geom.Area;
 import java.awt.geom.GeneralPath;
-import java.awt.geom.Line2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.List;
 
 import main.Constants;
 import main.LightingTest;
+import utils.AdditiveComposite;
 import utils.Vec2D;
 
 public class SmoothLight {
@@ -21,10 +24,69 @@ public class SmoothLight {
 
 	protected final List<Light> lights = new ArrayList<>();
 	protected final List<Area> lightAreas = new ArrayList<>();
+	protected final List<ShadowQuads> shadowQuads = new ArrayList<>();
+	protected final List<SilhouetteCache> silhouettes = new ArrayList<>();
 
-	private List<Polygon> lastEntities;
+	/** The penumbra wedges of the base light, used in the WEDGE shadow mode. */
+	protected final ShadowQuads wedges = new ShadowQuads();
 
-	private boolean hasMoved;
+	/**
+	 * The hard shadow quads of the base light in the modes which don't cut
+	 * sub-lights, kept for {@link LightQuery}.
+	 */
+	protected final ShadowQuads centerQuads = new ShadowQuads();
+	protected final SilhouetteCache centerSilhouettes = new SilhouetteCache();
+
+	/** How many times the shadows were cut, to tell when they changed. */
+	int cutCount;
+
+	/**
+	 * The base light, which is drawn instead of the sub-lights in the POLAR,
+	 * SDF and WEDGE shadow modes.
+	 */
+	protected final Light center;
+
+	/**
+	 * How far the sub-lights spread from the base light, used as the radius
+	 * of the light's source for soft shadows.
+	 */
+	protected final float sourceRadius;
+
+	/** How the shadows of this light are built and drawn. */
+	private ShadowMode mode = Constants.SHADOW_MODE;
+
+	/**
+	 * The mask of this light, which its sub-lights are drawn through in the MASK shadow mode and its base light in the
+	 * WEDGE mode. Each light owns one, so lights can be drawn on several threads at once, and it only covers the
+	 * texture of the sub-light being drawn.
+	 */
+	private final ShadowMask mask = new ShadowMask(Constants.ANTIALIAS_SHADOWS);
+
+	/** The occluders and their version from the last cut, to skip unchanged frames. */
+	private OccluderStore lastOccluders;
+	private int lastVersion;
+
+	/** Where the base light was at the last cut, to skip moves too small to show. */
+	private float cutX;
+	private float cutY;
+
+	/** Whether the next cut has to rebuild the shadows whatever changed. */
+	private boolean isDirty;
+
+	/** What the last cut found, which lets drawing skip the shadows or the light. */
+	private LightVisibility visibility = LightVisibility.SHADOWED;
+
+	/** Whether this light never moves, so it can be baked. */
+	private boolean isStatic;
+
+	/** The silhouette points A and B of the occluder being cut. */
+	private final float[] silhouette = new float[4];
+
+	/** The shadow map of the base light, created by the first POLAR cut. */
+	private PolarShadowMap polarMap;
+
+	/** The distance field of the occluders from the last SDF cut. */
+	private DistanceField distanceField;
 
 	/**
 	 *
@@ -41,6 +103,8 @@ public class SmoothLight {
 	 */
 	public SmoothLight(final Light center, final int circles,
 			final int oneLayerProjection, final int layers, final int angle) {
+		this.center = center;
+		sourceRadius = Math.max(1, oneLayerProjection * (layers - 1));
 
 		final int alpha = center.getColor().getAlpha() / circles / layers;
 		final Color newColor = new Color(center.getColor().getRed(), center
@@ -61,6 +125,8 @@ public class SmoothLight {
 				lights.add(new Light(newColor, new Vec2D(x, y), center
 						.getRadius()));
 				lightAreas.add(new Area());
+				shadowQuads.add(new ShadowQuads());
+				silhouettes.add(new SilhouetteCache());
 			}
 		}
 
@@ -68,10 +134,39 @@ public class SmoothLight {
 
 	/**
 	 * @param g
-	 *            the graphics to use for rendering
+	 *            the graphics to use for rendering, culled against its device
+	 *            bounds
 	 * @throws Exception
 	 */
 	public void draw(final Graphics2D g) {
+		final Rectangle target = g.getDeviceConfiguration().getBounds();
+		draw(g, target.width, target.height);
+	}
+
+	/**
+	 * Draws the lights with Java2D, clipped by the light areas of the last
+	 * cut. Used by the AREA shadow mode.
+	 *
+	 * @param g
+	 *            the graphics to use for rendering
+	 * @param width
+	 *            the width of the target, to cull the light against
+	 * @param height
+	 *            the height of the target
+	 */
+	public void draw(final Graphics2D g, final int width, final int height) {
+		final LightVisibility visibility = getVisibility(width, height);
+		if (visibility == LightVisibility.OCCLUDED
+				|| visibility == LightVisibility.OFF_SCREEN) {
+			return;
+		}
+
+		final Composite composite = g.getComposite();
+		if (Constants.ADDITIVE_LIGHTS) {
+			g.setComposite(AdditiveComposite.getInstance(getIntensity()));
+		} else if (getIntensity() < 1) {
+			g.setComposite(AlphaComposite.SrcOver.derive(getIntensity()));
+		}
 
 		for (int i = 0; i < lights.size(); i++) {
 			final Light light = lights.get(i);
@@ -83,11 +178,11 @@ public class SmoothLight {
 						(int) (light.getX() - light.getRadius()),
 						(int) (light.getY() - light.getRadius()));
 			} else {
-				// get the inverse of the lightArea and set that as the clip for
+				// get the inverse of the lightArea and add that to the clip for
 				// shadows
 				final Shape s = g.getClip();
 
-				g.setClip(new GeneralPath(lightArea));
+				g.clip(new GeneralPath(lightArea));
 				if (Constants.OUTLINE_SHADOWS) {
 					g.setColor(Color.PINK);
 					g.draw(lightArea);
@@ -104,6 +199,62 @@ public class SmoothLight {
 			}
 
 		}
+		g.setComposite(composite);
+	}
+
+	/**
+	 * Draws the lights into the pixels of an INT_ARGB_PRE image, masking out the
+	 * shadows from the last cut. Used by every shadow mode but AREA.
+	 *
+	 * @param pixels
+	 *            the pixels to draw into
+	 * @param width
+	 *            the width of the image
+	 * @param height
+	 *            the height of the image
+	 */
+	public void draw(final int[] pixels, final int width, final int height) {
+		final LightVisibility visibility = getVisibility(width, height);
+		if (visibility == LightVisibility.OCCLUDED
+				|| visibility == LightVisibility.OFF_SCREEN) {
+			return;
+		} else if (visibility == LightVisibility.UNSHADOWED) {
+			// nothing to mask, so the textures go straight into the pixels
+			if (mode == ShadowMode.MASK) {
+				for (int i = 0; i < lights.size(); i++) {
+					lights.get(i).blit(pixels, width, height);
+				}
+			} else {
+				center.blit(pixels, width, height);
+			}
+			return;
+		}
+
+		if (mode == ShadowMode.POLAR) {
+			polarMap.draw(center, pixels, width, height);
+			return;
+		} else if (mode == ShadowMode.SDF) {
+			distanceField.update(width, height);
+			distanceField.draw(center, sourceRadius, pixels, width, height);
+			return;
+		} else if (mode == ShadowMode.WEDGE) {
+			mask.reset(center, width, height);
+			if (mask.isVisible()) {
+				mask.fillWedges(wedges, center.getX(), center.getY(), sourceRadius);
+				mask.blit(center, pixels);
+			}
+			return;
+		}
+
+		for (int i = 0; i < lights.size(); i++) {
+			final Light light = lights.get(i);
+
+			mask.reset(light, width, height);
+			if (mask.isVisible()) {
+				mask.fill(shadowQuads.get(i));
+				mask.blit(light, pixels);
+			}
+		}
 	}
 
 	/**
@@ -123,127 +274,458 @@ public class SmoothLight {
 	}
 
 	/**
-	 * Projects a point from end along the vector (end - start) by the given
-	 * scalar amount.
+	 * Same as {@link #isLeft(Vec2D, Vec2D, Vec2D)}, without allocating any
+	 * points.
 	 */
-	private static Vec2D project(final Vec2D start, final Vec2D end,
-			final float scalar) {
-		return end.minus(start).unitVector().scalarMult(scalar).plus(end);
+	public static boolean isLeft(final float ax, final float ay,
+			final float bx, final float by, final float cx, final float cy) {
+		return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax) > 0;
+	}
+
+	/**
+	 * Returns approximately 1 / length of the vector (x, y), or 0 for the zero
+	 * vector. Used to project points away from the light.
+	 */
+	private static float invLength(final float x, final float y) {
+		if (x == 0 && y == 0) {
+			return 0;
+		}
+		return Vec2D.invSqrt(x * x + y * y);
+	}
+
+	/**
+	 * Unions the shadow quads into an Area, and returns the inverse of it on
+	 * the screen.
+	 */
+	private static Area toLightArea(final ShadowQuads quads) {
+		final Area lightArea = new Area(new Rectangle2D.Float(0, 0,
+				LightingTest.getWidth(), LightingTest.getHeight()));
+		if (quads.size() == 0) {
+			return lightArea;
+		}
+
+		Area shadowArea = null;
+		final float[] coords = quads.getCoords();
+		for (int i = 0; i < quads.size(); i++) {
+			// construct a polygon from our points
+			POLYGON.reset();
+			for (int j = i * ShadowQuads.STRIDE; j < (i + 1) * ShadowQuads.STRIDE; j += 2) {
+				POLYGON.addPoint((int) coords[j], (int) coords[j + 1]);
+			}
+			final Area a = new Area(POLYGON);
+
+			// adds to the existing light area
+			if (shadowArea == null) {
+				shadowArea = a;
+			} else {
+				shadowArea.add(a);
+			}
+		}
+
+		lightArea.subtract(shadowArea);
+		return lightArea;
 	}
 
 	public void setPosition(final float x, final float y) {
 		final float differenceX = x - lights.get(0).getX();
 		final float differenceY = y - lights.get(0).getY();
 
-		if (differenceX != 0 || differenceY != 0) {
-			hasMoved = true;
-		}
-
 		for (final Light l : lights) {
 			l.setPosition(l.getX() + differenceX, l.getY() + differenceY);
 		}
+		center.setPosition(center.getX() + differenceX, center.getY()
+				+ differenceY);
 	}
 
-	public void cut(final List<Polygon> entities) {
-		if (entities.equals(lastEntities) && !hasMoved) {
-			return;
+	/**
+	 * Returns the bounds of everything the light can reach, which is the
+	 * radius of the lights around the base light and the spread of the
+	 * sub-lights.
+	 */
+	public Rectangle getBounds() {
+		final int reach = (int) Math.ceil(getReach());
+		return new Rectangle((int) center.getX() - reach, (int) center.getY()
+				- reach, reach * 2 + 1, reach * 2 + 1);
+	}
+
+	/** Returns how far from the base light the light can reach. */
+	public float getReach() {
+		return center.getRadius() + sourceRadius;
+	}
+
+	public Light getCenter() {
+		return center;
+	}
+
+	public float getIntensity() {
+		return center.getIntensity();
+	}
+
+	/**
+	 * Sets how strongly the light is drawn, from 0 to 1. Its shadows stay as
+	 * they are, so this doesn't force a cut.
+	 */
+	public void setIntensity(final float intensity) {
+		center.setIntensity(intensity);
+		for (int i = 0; i < lights.size(); i++) {
+			lights.get(i).setIntensity(intensity);
 		}
+	}
 
-		for (int z = 0; z < lights.size(); z++) {
+	public boolean isStatic() {
+		return isStatic;
+	}
 
-			final Light light = lights.get(z);
+	/**
+	 * Marks the light as static, meaning it isn't expected to move and can
+	 * be baked into a {@link StaticLightLayer}.
+	 */
+	public void setStatic(final boolean isStatic) {
+		this.isStatic = isStatic;
+	}
 
-			// minimum distance (squared) which will save us some checks
-			final float minDistSq = light.getRadius() * light.getRadius();
+	public ShadowMode getShadowMode() {
+		return mode;
+	}
 
-			// The area for drawing the light in
-			Area shadowArea = null;
+	/**
+	 * Changes how the shadows of this light are built and drawn. Forces the
+	 * next cut to rebuild them.
+	 */
+	public void setShadowMode(final ShadowMode mode) {
+		this.mode = mode;
+		isDirty = true;
+	}
 
-			for (int i = 0; i < entities.size(); i++) {
-				final Polygon e = entities.get(i);
+	/**
+	 * Returns whether the shadows from the last cut are out of date, because
+	 * the light moved or the occluders changed since. A move of less than
+	 * {@link Constants#SHADOW_MOVE_TOLERANCE} from where the light was cut
+	 * keeps the shadows, since they would barely change.
+	 */
+	public boolean needsCut(final OccluderStore occluders) {
+		final float dx = center.getX() - cutX;
+		final float dy = center.getY() - cutY;
+		final float tolerance = Constants.SHADOW_MOVE_TOLERANCE;
+		return occluders != lastOccluders
+				|| occluders.getVersion() != lastVersion || isDirty
+				|| dx * dx + dy * dy > tolerance * tolerance;
+	}
 
-				final Rectangle2D bounds = e.getBounds2D();
+	/**
+	 * Returns what the last cut found about the shadows of the light, which
+	 * is never {@link LightVisibility#OFF_SCREEN}.
+	 */
+	public LightVisibility getVisibility() {
+		return visibility;
+	}
 
-				// average to find the entity's radius
-				final float radius = (float) (bounds.getWidth() + bounds
-						.getHeight()) / 4f;
+	/**
+	 * Returns what the last cut found about the shadows of the light, or
+	 * {@link LightVisibility#OFF_SCREEN} if it doesn't reach a target of the
+	 * given size.
+	 */
+	public LightVisibility getVisibility(final int width, final int height) {
+		final Rectangle bounds = getBounds();
+		if (bounds.x >= width || bounds.y >= height
+				|| bounds.x + bounds.width <= 0
+				|| bounds.y + bounds.height <= 0) {
+			return LightVisibility.OFF_SCREEN;
+		}
+		return visibility;
+	}
 
-				// get center of entity
-				final Vec2D center = new Vec2D(bounds.getX() + radius,
-						bounds.getY() + radius);
+	/** Returns whether the light has been cut at least once. */
+	public boolean hasShadows() {
+		return lastOccluders != null;
+	}
 
-				final Vec2D lightToEntity = center.minus(light.getPosition());
+	public void cut(final OccluderStore occluders) {
+		cut(occluders, null, 0, occluders.size());
+	}
 
-				// get euclidean distance from light to center of the entity
-				final float distSq = (float) lightToEntity
-						.distanceSq(lightToEntity);
+	/**
+	 * Cuts the shadows, only looking at some of the occluders, which have to
+	 * include every occluder within reach of the light.
+	 *
+	 * @param candidates
+	 *            the indices of the occluders to look at are from the index
+	 *            from to the index to, exclusive, or if null the range is the
+	 *            indices themselves
+	 */
+	public void cut(final OccluderStore occluders, final int[] candidates,
+			final int from, final int to) {
+		if (!needsCut(occluders)) {
+			return;
+		}
 
-				// if the entity is outside of the shadow radius, then ignore
-				if (distSq > minDistSq) {
-					continue;
+		visibility = classify(occluders, candidates, from, to);
+		if (visibility != LightVisibility.SHADOWED) {
+			// no shadows to build, the light is either drawn whole or not at
+			// all, and nothing of the last cut may be left for LightQuery
+			for (int i = 0; i < lights.size(); i++) {
+				shadowQuads.get(i).clear();
+				if (mode == ShadowMode.AREA) {
+					lightAreas.set(i, null);
 				}
+			}
+			wedges.clear();
+			centerQuads.clear();
+		} else if (mode == ShadowMode.POLAR) {
+			if (polarMap == null) {
+				polarMap = new PolarShadowMap(Constants.POLAR_BINS,
+						Constants.POLAR_SOFTNESS);
+			}
+			polarMap.build(occluders, center, candidates, from, to);
+			cutCenterQuads(occluders, candidates, from, to);
+		} else if (mode == ShadowMode.SDF) {
+			// the field follows the occluders itself, and is shared by all
+			// lights
+			distanceField = occluders.getDistanceField();
+			cutCenterQuads(occluders, candidates, from, to);
+		} else if (mode == ShadowMode.WEDGE) {
+			cutWedges(occluders, candidates, from, to);
+		} else {
+			cutQuads(occluders, candidates, from, to);
+		}
 
-				// if A never gets set, it defaults to the center
-				Vec2D A = center;
-				Vec2D B = center;
-
-				// Find the farthest away vertices for which a line segment
-				// between the source and it do not intersect
-				// the polygon. Basically, a vertex with a line of sight to the
-				// light source. Store these two in A and B.
-				float maxAdistSq = 0;
-				float maxBdistSq = 0;
-				for (int j = 0; j < e.npoints; j++) {
-					final int x = e.xpoints[j];
-					final int y = e.ypoints[j];
-
-					final float newDistSqred = (float) Line2D.ptLineDistSq(
-							light.getX(), light.getY(), center.x, center.y, x,
-							y);
-
-					if (maxAdistSq < newDistSqred
-							&& isLeft(light.getPosition(), center, new Vec2D(x,
-									y))) {
-						maxAdistSq = newDistSqred;
-						A = new Vec2D(x, y);
-					}
-					if (maxBdistSq < newDistSqred
-							&& !isLeft(light.getPosition(), center, new Vec2D(
-									x, y))) {
-						maxBdistSq = newDistSqred;
-						B = new Vec2D(x, y);
-					}
-				}
-				// project the points by our SHADOW_EXTRUDE amount
-				final Vec2D C = project(light.getPosition(), A,
-						light.getRadius() * light.getRadius());
-				final Vec2D D = project(light.getPosition(), B,
-						light.getRadius() * light.getRadius());
-
-				// construct a polygon from our points
-				POLYGON.reset();
-				POLYGON.addPoint((int) A.x, (int) A.y);
-				POLYGON.addPoint((int) B.x, (int) B.y);
-				POLYGON.addPoint((int) D.x, (int) D.y);
-				POLYGON.addPoint((int) C.x, (int) C.y);
-				final Area a = new Area(POLYGON);
-
-				// adds to the existing light area
-				if (shadowArea == null) {
-					shadowArea = a;
-				} else {
-					shadowArea.add(a);
-				}
+		lastOccluders = occluders;
+		lastVersion = occluders.getVersion();
+		cutX = center.getX();
+		cutY = center.getY();
+		isDirty = false;
+		cutCount++;
+	}
 
+	/**
+	 * Returns how many silhouettes the last cut reused from the cut before,
+	 * because the light only moved and they stayed on the same vertices.
+	 */
+	public int getReusedSilhouetteCount() {
+		if (mode != ShadowMode.AREA && mode != ShadowMode.MASK) {
+			return centerSilhouettes.getReusedCount();
+		}
+		int count = 0;
+		for (int i = 0; i < silhouettes.size(); i++) {
+			count += silhouettes.get(i).getReusedCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Finds whether any of the candidate occluders is within reach of the
+	 * light, and whether one of them holds the base light and every
+	 * sub-light, which leaves nothing for the light to reach.
+	 */
+	private LightVisibility classify(final OccluderStore occluders,
+			final int[] candidates, final int from, final int to) {
+		final float lightX = center.getX();
+		final float lightY = center.getY();
+		final float reach = getReach();
+
+		LightVisibility visibility = LightVisibility.UNSHADOWED;
+		for (int c = from; c < to; c++) {
+			final int i = candidates == null ? c : candidates[c];
+			if (occluders.boundsDistanceSq(i, lightX, lightY) > reach * reach) {
+				continue;
 			}
+			visibility = LightVisibility.SHADOWED;
 
-			final Area lightArea = new Area(new Rectangle2D.Float(0, 0,
-					LightingTest.getWidth(), LightingTest.getHeight()));
-			lightArea.subtract(shadowArea);
-			lightAreas.set(z, lightArea);
+			if (occluders.boundsDistanceSq(i, lightX, lightY) == 0
+					&& occluders.contains(i, lightX, lightY)
+					&& containsAll(occluders, i)) {
+				return LightVisibility.OCCLUDED;
+			}
+		}
+		return visibility;
+	}
 
+	/** Returns whether the occluder at index holds every sub-light. */
+	private boolean containsAll(final OccluderStore occluders, final int index) {
+		for (int i = 0; i < lights.size(); i++) {
+			final Light light = lights.get(i);
+			if (!occluders.contains(index, light.getX(), light.getY())) {
+				return false;
+			}
 		}
-		lastEntities = entities;
-		hasMoved = false;
+		return true;
+	}
+
+	/** Builds the shadow quads of every sub-light. */
+	private void cutQuads(final OccluderStore occluders,
+			final int[] candidates, final int from, final int to) {
+		final OccluderHulls hulls = occluders.getHulls();
+		for (int z = 0; z < lights.size(); z++) {
+			final Light light = lights.get(z);
+
+			// The shadow quads of this light
+			final ShadowQuads quads = shadowQuads.get(z);
+			final SilhouetteCache cache = silhouettes.get(z);
+			cache.begin(occluders);
+			cutQuads(occluders, candidates, from, to, hulls, light.getX(),
+					light.getY(), light.getRadius(), silhouette, cache, quads);
+
+			if (mode == ShadowMode.AREA) {
+				lightAreas.set(z, toLightArea(quads));
+			}
+		}
+	}
+
+	/** Builds the hard shadow quads of the base light. */
+	private void cutCenterQuads(final OccluderStore occluders,
+			final int[] candidates, final int from, final int to) {
+		centerSilhouettes.begin(occluders);
+		cutQuads(occluders, candidates, from, to, occluders.getHulls(),
+				center.getX(), center.getY(), center.getRadius(), silhouette,
+				centerSilhouettes, centerQuads);
+	}
+
+	/**
+	 * Replaces the quads with the hard shadows of a point light at (lightX,
+	 * lightY) with the given radius.
+	 *
+	 * @param silhouette
+	 *            a scratch array of at least four floats
+	 */
+	static void cutQuads(final OccluderStore occluders,
+			final OccluderHulls hulls, final float lightX, final float lightY,
+			final float radius, final float[] silhouette,
+			final ShadowQuads quads) {
+		cutQuads(occluders, null, 0, occluders.size(), hulls, lightX, lightY,
+				radius, silhouette, null, quads);
+	}
+
+	/**
+	 * Replaces the quads as {@link #cutQuads(OccluderStore, OccluderHulls,
+	 * float, float, float, float[], ShadowQuads)}, only looking at the
+	 * candidates as in {@link #cut(OccluderStore, int[], int, int)}.
+	 *
+	 * @param cache
+	 *            the silhouettes of the light's last cut, which are reused
+	 *            while they still hold, or null
+	 */
+	static void cutQuads(final OccluderStore occluders,
+			final int[] candidates, final int from, final int to,
+			final OccluderHulls hulls, final float lightX, final float lightY,
+			final float radius, final float[] silhouette,
+			final SilhouetteCache cache, final ShadowQuads quads) {
+		// minimum distance (squared) which will save us some checks
+		final float minDistSq = radius * radius;
+
+		quads.clear();
+		for (int c = from; c < to; c++) {
+			final int i = candidates == null ? c : candidates[c];
+			// if the entity is outside of the shadow radius, then ignore
+			if (occluders.boundsDistanceSq(i, lightX, lightY) > minDistSq
+					|| !hulls.isInReach(i, lightX, lightY, radius)) {
+				continue;
+			}
+
+			// find the two vertices A and B with a line of sight to the
+			// light source, skipping lights inside of the occluder
+			if (!Silhouettes.find(occluders, hulls, i, lightX, lightY, silhouette, cache)) {
+				continue;
+			}
+			addQuad(silhouette[0], silhouette[1], silhouette[2], silhouette[3],
+					lightX, lightY, radius, quads);
+		}
+	}
+
+	/**
+	 * Adds the hard shadow quad of the silhouette A, B, projected away from
+	 * the light far enough to leave its radius.
+	 */
+	private static void addQuad(final float ax, final float ay,
+			final float bx, final float by, final float lightX,
+			final float lightY, final float radius, final ShadowQuads quads) {
+		// project the points by our SHADOW_EXTRUDE amount
+		final float extrude = radius * radius;
+		final float aScale = extrude * invLength(ax - lightX, ay - lightY);
+		final float bScale = extrude * invLength(bx - lightX, by - lightY);
+		final float cx = ax + (ax - lightX) * aScale;
+		final float cy = ay + (ay - lightY) * aScale;
+		final float dx = bx + (bx - lightX) * bScale;
+		final float dy = by + (by - lightY) * bScale;
+
+		quads.add(ax, ay, bx, by, dx, dy, cx, cy);
+	}
+
+	/**
+	 * Builds one penumbra wedge per occluder around the base light. Each
+	 * wedge is bounded by the outer edges of the penumbras at A and B, which
+	 * are the lines from the far side of the light's source through them.
+	 * The hard quads of the same silhouettes are kept too.
+	 */
+	private void cutWedges(final OccluderStore occluders,
+			final int[] candidates, final int from, final int to) {
+		final float lightX = center.getX();
+		final float lightY = center.getY();
+		final float minDistSq = center.getRadius() * center.getRadius();
+		final float extrude = center.getRadius() * center.getRadius();
+		final OccluderHulls hulls = occluders.getHulls();
+
+		wedges.clear();
+		centerQuads.clear();
+		centerSilhouettes.begin(occluders);
+		for (int c = from; c < to; c++) {
+			final int i = candidates == null ? c : candidates[c];
+			if (occluders.boundsDistanceSq(i, lightX, lightY) > minDistSq
+					|| !hulls.isInReach(i, lightX, lightY, center.getRadius())) {
+				continue;
+			}
+			if (!Silhouettes.find(occluders, hulls, i, lightX, lightY, silhouette, centerSilhouettes)) {
+				continue;
+			}
+			final float ax = silhouette[0], ay = silhouette[1];
+			final float bx = silhouette[2], by = silhouette[3];
+
+			outerEdge(ax, ay, bx, by, extrude);
+			final float cx = silhouette[0], cy = silhouette[1];
+			outerEdge(bx, by, ax, ay, extrude);
+			final float dx = silhouette[0], dy = silhouette[1];
+
+			wedges.add(ax, ay, bx, by, dx, dy, cx, cy);
+			addQuad(ax, ay, bx, by, lightX, lightY, center.getRadius(),
+					centerQuads);
+		}
+	}
+
+	/**
+	 * Writes the end of the outer penumbra edge at the vertex into the first
+	 * two silhouette floats. The edge starts at the point of the source on
+	 * the other vertex's side, offset far enough for the line to be tangent
+	 * to the source, and is extruded through the vertex.
+	 */
+	private void outerEdge(final float vertexX, final float vertexY,
+			final float otherX, final float otherY, final float extrude) {
+		final float ux = vertexX - center.getX();
+		final float uy = vertexY - center.getY();
+		final float distSq = ux * ux + uy * uy;
+		final float dist = (float) Math.sqrt(distSq);
+		if (dist == 0) {
+			silhouette[0] = vertexX;
+			silhouette[1] = vertexY;
+			return;
+		}
+
+		// the normal of the vertex's direction, towards the other vertex
+		float nx = -uy / dist;
+		float ny = ux / dist;
+		if (nx * (otherX - vertexX) + ny * (otherY - vertexY) < 0) {
+			nx = -nx;
+			ny = -ny;
+		}
+
+		// the offset of the source point whose line through the vertex is
+		// tangent to the source, limited when the source covers the vertex
+		final float r = sourceRadius;
+		final float offset = r * dist
+				/ (float) Math.sqrt(Math.max(distSq - r * r, r * r * 0.01f));
+		final float sx = center.getX() + nx * offset;
+		final float sy = center.getY() + ny * offset;
+
+		final float scale = extrude * invLength(vertexX - sx, vertexY - sy);
+		silhouette[0] = vertexX + (vertexX - sx) * scale;
+		silhouette[1] = vertexY + (vertexY - sy) * scale;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,266 @@
+package light;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import utils.BufferPool;
+
+/**
+ * A cached layer with the light of every static light which no dynamic occluder can reach. Such a light only depends
+ * on static occluders, so it is drawn once and then copied into the lightmap each frame, and only the dynamic lights
+ * have to be cut and drawn on top of it.
+ *
+ * When a static item changes, only the region of the baked lights it affects is drawn again. A static light which a
+ * dynamic occluder moves into is taken out of the layer and drawn live, until the occluder leaves again.
+ */
+public class StaticLightLayer implements OccluderStore.Listener {
+	private final OccluderStore occluders;
+
+	/** Holds the layer and the scratch image between frames. */
+	private final BufferPool buffers;
+
+	private int width;
+	private int height;
+
+	/** The baked light. */
+	private int[] layer = new int[0];
+
+	/** The image the dirty region is drawn into before it is copied into the layer. */
+	private BufferedImage scratch;
+	private int[] scratchPixels;
+
+	/** The baked lights, and the position and intensity of each when it was baked. */
+	private Map<SmoothLight, float[]> baked = new IdentityHashMap<>();
+
+	/** The lights baked before this update, swapped with baked so neither is allocated again. */
+	private Map<SmoothLight, float[]> previous = new IdentityHashMap<>();
+
+	/** The indices of the dynamic occluders, and the version of the occluders they were found in. */
+	private int[] dynamic = new int[16];
+	private int dynamicCount;
+	private int dynamicVersion = -1;
+
+	/** The bounds of all dynamic occluders together, to skip most lights at once. */
+	private float dynamicMinX, dynamicMinY, dynamicMaxX, dynamicMaxY;
+
+	/** The bounds of the occluders changed since the last update. */
+	private final List<Rectangle> changes = new ArrayList<>();
+
+	/** The region which has to be drawn again, empty if none. */
+	private Rectangle dirty = new Rectangle();
+
+	/**
+	 * Creates a layer which follows the changes of the occluders.
+	 *
+	 * @param buffers
+	 *            the pool to take the layer from
+	 */
+	public StaticLightLayer(final OccluderStore occluders, final BufferPool buffers) {
+		this.occluders = occluders;
+		this.buffers = buffers;
+		occluders.addListener(this);
+	}
+
+	@Override
+	public void occludersChanged(final float minX, final float minY, final float maxX, final float maxY) {
+		final int x = (int) Math.max(Integer.MIN_VALUE / 2, Math.floor(minX));
+		final int y = (int) Math.max(Integer.MIN_VALUE / 2, Math.floor(minY));
+		final int right = (int) Math.min(Integer.MAX_VALUE / 2, Math.ceil(maxX));
+		final int bottom = (int) Math.min(Integer.MAX_VALUE / 2, Math.ceil(maxY));
+		changes.add(new Rectangle(x, y, right - x + 1, bottom - y + 1));
+	}
+
+	/**
+	 * Decides which lights are baked, and draws the regions which changed since the last update again.
+	 *
+	 * @param lights
+	 *            all lights of the scene
+	 * @param width
+	 *            the width of the lightmap
+	 * @param height
+	 *            the height of the lightmap
+	 */
+	public void update(final List<SmoothLight> lights, final int width, final int height) {
+		if (width != this.width || height != this.height) {
+			this.width = width;
+			this.height = height;
+			baked.clear();
+			dirty = new Rectangle(0, 0, width, height);
+		}
+
+		// the pool hands out a new array when the old one was shrunk, which has to be baked again
+		final int[] pooled = buffers.getArray("static light layer", width * height);
+		if (pooled != layer) {
+			layer = pooled;
+			dirty = new Rectangle(0, 0, width, height);
+		}
+		scratch = buffers.getImage("static light scratch", width, height);
+		scratchPixels = ((DataBufferInt) scratch.getRaster().getDataBuffer()).getData();
+
+		updateDynamic();
+		final Map<SmoothLight, float[]> swap = previous;
+		previous = baked;
+		baked = swap;
+		for (int i = 0; i < lights.size(); i++) {
+			final SmoothLight light = lights.get(i);
+			if (!light.isStatic() || reachesDynamicOccluder(light)) {
+				continue;
+			}
+
+			float[] position = previous.remove(light);
+			final float x = light.getCenter().getX();
+			final float y = light.getCenter().getY();
+			if (position == null) {
+				// newly baked
+				invalidate(light.getBounds());
+			} else if (position[0] != x || position[1] != y) {
+				// a static light was moved, redraw where it was and where it is
+				invalidate(bounds(light, position[0], position[1]));
+				invalidate(light.getBounds());
+			} else if (position[2] != light.getIntensity()) {
+				invalidate(light.getBounds());
+			} else {
+				// redraw the light if a changed occluder is within its reach
+				for (int j = 0; j < changes.size(); j++) {
+					if (changes.get(j).intersects(light.getBounds())) {
+						invalidate(light.getBounds());
+						break;
+					}
+				}
+			}
+			if (position == null) {
+				position = new float[3];
+			}
+			position[0] = x;
+			position[1] = y;
+			position[2] = light.getIntensity();
+			baked.put(light, position);
+		}
+
+		// lights which are no longer baked
+		for (final Map.Entry<SmoothLight, float[]> entry : previous.entrySet()) {
+			invalidate(bounds(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+		}
+		previous.clear();
+		changes.clear();
+
+		dirty = dirty.intersection(new Rectangle(0, 0, width, height));
+		if (!dirty.isEmpty()) {
+			bake(lights);
+			dirty = new Rectangle();
+		}
+	}
+
+	/** Returns whether the light is drawn by the layer, and should be skipped when drawing the dynamic lights. */
+	public boolean isBaked(final SmoothLight light) {
+		return baked.containsKey(light);
+	}
+
+	/** Marks a region to be drawn again on the next update. */
+	public void invalidate(final Rectangle region) {
+		if (dirty.isEmpty()) {
+			dirty = new Rectangle(region);
+		} else {
+			dirty.add(region);
+		}
+	}
+
+	/**
+	 * Copies the layer into the pixels of the lightmap, replacing what was there.
+	 *
+	 * @param pixels
+	 *            the INT_ARGB_PRE pixels of the lightmap, of the size given to the last update
+	 */
+	public void draw(final int[] pixels) {
+		System.arraycopy(layer, 0, pixels, 0, width * height);
+	}
+
+	/** Draws every baked light within the dirty region into the scratch image, and copies the region into the layer. */
+	private void bake(final List<SmoothLight> lights) {
+		final Graphics2D g = scratch.createGraphics();
+		g.setBackground(new Color(255, 255, 255, 0));
+		g.clearRect(dirty.x, dirty.y, dirty.width, dirty.height);
+		g.setClip(dirty);
+
+		for (int i = 0; i < lights.size(); i++) {
+			final SmoothLight light = lights.get(i);
+			if (!baked.containsKey(light) || !light.getBounds().intersects(dirty)) {
+				continue;
+			}
+
+			light.cut(occluders);
+			if (light.getShadowMode() == ShadowMode.AREA) {
+				light.draw(g, width, height);
+			} else {
+				// draws outside of the region too, but only the region is copied
+				light.draw(scratchPixels, width, height);
+			}
+		}
+		g.dispose();
+
+		for (int y = dirty.y; y < dirty.y + dirty.height; y++) {
+			System.arraycopy(scratchPixels, y * width + dirty.x, layer, y * width + dirty.x, dirty.width);
+		}
+	}
+
+	/**
+	 * Finds the dynamic occluders again if the occluders changed, so a frame without changes only looks at the dynamic
+	 * ones.
+	 */
+	private void updateDynamic() {
+		if (occluders.getVersion() == dynamicVersion) {
+			return;
+		}
+		dynamicVersion = occluders.getVersion();
+
+		dynamicCount = 0;
+		dynamicMinX = dynamicMinY = Float.POSITIVE_INFINITY;
+		dynamicMaxX = dynamicMaxY = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < occluders.size(); i++) {
+			if (occluders.isStatic(i)) {
+				continue;
+			}
+			if (dynamicCount == dynamic.length) {
+				dynamic = Arrays.copyOf(dynamic, dynamicCount * 2);
+			}
+			dynamic[dynamicCount++] = i;
+			dynamicMinX = Math.min(dynamicMinX, occluders.getMinX(i));
+			dynamicMinY = Math.min(dynamicMinY, occluders.getMinY(i));
+			dynamicMaxX = Math.max(dynamicMaxX, occluders.getMaxX(i));
+			dynamicMaxY = Math.max(dynamicMaxY, occluders.getMaxY(i));
+		}
+	}
+
+	/** Returns whether any dynamic occluder is within reach of the light. */
+	private boolean reachesDynamicOccluder(final SmoothLight light) {
+		final float x = light.getCenter().getX();
+		final float y = light.getCenter().getY();
+		final float reach = light.getReach();
+		if (x + reach < dynamicMinX || x - reach > dynamicMaxX || y + reach < dynamicMinY || y - reach > dynamicMaxY) {
+			return false;
+		}
+
+		final float reachSq = reach * reach;
+		for (int k = 0; k < dynamicCount; k++) {
+			if (occluders.boundsDistanceSq(dynamic[k], x, y) <= reachSq) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Returns the bounds the light had when its base light was at (x, y). */
+	private static Rectangle bounds(final SmoothLight light, final float x, final float y) {
+		final Rectangle bounds = light.getBounds();
+		bounds.translate((int) x - (int) light.getCenter().getX(), (int) y - (int) light.getCenter().getY());
+		return bounds;
+	}
+}
@@ -0,0 +1,345 @@
+package light;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds which occluders each light can reach, so a cut only has to look at those. The bounds of the lights and
+ * occluders are kept as endpoints sorted along x, and since things move little between frames, sorting them again with
+ * an insertion sort only takes a few swaps. A sweep over the endpoints then pairs each light with the occluders it
+ * overlaps on both axes.
+ *
+ * The pairs are grouped by light in one int array, the occluders of light i being from {@link #getStart(int)} to
+ * {@link #getEnd(int)}, in increasing order like a full scan would visit them.
+ *
+ * The endpoints are tagged by index, so when occluders are removed and the ones after them move down, every endpoint
+ * after the gap would take the bounds of a neighbour and the insertion sort would have to move most of them. The
+ * endpoints are then sorted all at once instead, as they are whenever the insertion sort takes too many swaps.
+ */
+public class SweepAndPrune {
+	/** The low bits of an endpoint's tag, whether it is a maximum and whether it belongs to an occluder. */
+	private static final int MAX = 1;
+	private static final int OCCLUDER = 2;
+
+	/** Above this share of new endpoints, they are sorted all at once instead of inserted one by one. */
+	private static final float REBUILD_SHARE = 0.25f;
+
+	/** The endpoints along x, and the tag of each: the index of its light or occluder shifted by 2, and the bits. */
+	private float[] endpointX = new float[0];
+	private int[] endpointTag = new int[0];
+	private int endpointCount;
+
+	/** The bounds this frame, of the lights and then of the occluders. */
+	private float[] lightBounds = new float[0];
+	private float[] occluderBounds = new float[0];
+	private int lightCount;
+	private int occluderCount;
+
+	/** The lights and occluders whose minimum has been passed but not their maximum, during the sweep. */
+	private int[] activeLights = new int[0];
+	private int[] activeOccluders = new int[0];
+	private int[] activeSlots = new int[0];
+
+	/** The overlapping pairs as found, light then occluder. */
+	private int[] pairs = new int[64];
+	private int pairCount;
+
+	/** The pairs grouped by light, as occluder indices, and where the group of each light starts. */
+	private int[] candidates = new int[32];
+	private int[] starts = new int[1];
+
+	/** Scratch for sorting the pairs. */
+	private int[] sortedPairs = new int[64];
+	private int[] counts = new int[1];
+	private long[] keys = new long[0];
+
+	/** The swaps made by the last insertion sort. */
+	private int swapCount;
+
+	/** The occluders of the last update and their version then, to tell whether any were removed since. */
+	private OccluderStore occluders;
+	private int version;
+
+	/**
+	 * Finds the occluders each light can reach this frame.
+	 *
+	 * @param lights
+	 *            the lights, light i being the i-th of the list
+	 */
+	public void update(final List<SmoothLight> lights, final OccluderStore occluders) {
+		final int previousLightCount = lightCount;
+		final int previousOccluderCount = occluderCount;
+		lightCount = lights.size();
+		occluderCount = occluders.size();
+
+		if (lightBounds.length < lightCount * 4) {
+			lightBounds = new float[lightCount * 8];
+		}
+		for (int i = 0; i < lightCount; i++) {
+			final SmoothLight light = lights.get(i);
+			final float x = light.getCenter().getX();
+			final float y = light.getCenter().getY();
+			final float reach = light.getReach();
+			lightBounds[i * 4] = x - reach;
+			lightBounds[i * 4 + 1] = y - reach;
+			lightBounds[i * 4 + 2] = x + reach;
+			lightBounds[i * 4 + 3] = y + reach;
+		}
+		if (occluderBounds.length < occluderCount * 4) {
+			occluderBounds = new float[occluderCount * 8];
+		}
+		for (int i = 0; i < occluderCount; i++) {
+			occluderBounds[i * 4] = occluders.getMinX(i);
+			occluderBounds[i * 4 + 1] = occluders.getMinY(i);
+			occluderBounds[i * 4 + 2] = occluders.getMaxX(i);
+			occluderBounds[i * 4 + 3] = occluders.getMaxY(i);
+		}
+
+		// each add bumps the version once and the size by one, so the version is ahead of the size only after a removal
+		final boolean isCompacted = occluders != this.occluders || occluders.getVersion() - version != occluderCount - previousOccluderCount;
+		this.occluders = occluders;
+		version = occluders.getVersion();
+
+		boolean isRebuilt = false;
+		if (lightCount != previousLightCount || occluderCount != previousOccluderCount) {
+			isRebuilt = resize(previousLightCount, previousOccluderCount);
+		}
+		if (isRebuilt || isCompacted) {
+			swapCount = 0;
+			sortAll();
+		} else {
+			for (int k = 0; k < endpointCount; k++) {
+				endpointX[k] = boundOf(endpointTag[k]);
+			}
+			if (!insertionSort()) {
+				sortAll();
+			}
+		}
+		sweep();
+		group();
+	}
+
+	/**
+	 * Drops the endpoints of the lights and occluders which are gone, and adds those of the new ones.
+	 *
+	 * @return whether so many endpoints are new that they should all be sorted at once
+	 */
+	private boolean resize(final int previousLightCount, final int previousOccluderCount) {
+		int count = 0;
+		for (int k = 0; k < endpointCount; k++) {
+			final int tag = endpointTag[k];
+			if ((tag >>> 2) < ((tag & OCCLUDER) == 0 ? lightCount : occluderCount)) {
+				endpointTag[count++] = tag;
+			}
+		}
+
+		final int total = (lightCount + occluderCount) * 2;
+		if (endpointTag.length < total) {
+			endpointTag = Arrays.copyOf(endpointTag, total * 2);
+			endpointX = new float[total * 2];
+		}
+		final int kept = count;
+		for (int i = previousLightCount; i < lightCount; i++) {
+			endpointTag[count++] = i << 2;
+			endpointTag[count++] = i << 2 | MAX;
+		}
+		for (int i = previousOccluderCount; i < occluderCount; i++) {
+			endpointTag[count++] = i << 2 | OCCLUDER;
+			endpointTag[count++] = i << 2 | OCCLUDER | MAX;
+		}
+		endpointCount = count;
+
+		return count - kept > REBUILD_SHARE * count;
+	}
+
+	/** Sorts every endpoint at once, packing its bound and tag into a long, and gets their x again. */
+	private void sortAll() {
+		if (keys.length < endpointCount) {
+			keys = new long[endpointTag.length];
+		}
+		for (int k = 0; k < endpointCount; k++) {
+			final int tag = endpointTag[k];
+			// flips the bits of negative floats, so their bits compare as ints in the same order as the floats
+			final int bits = Float.floatToIntBits(boundOf(tag));
+			final int ordered = bits ^ bits >> 31 & 0x7fffffff;
+			// minimums before maximums at the same x, so touching bounds overlap
+			keys[k] = (long) ordered << 32 | ((tag & MAX) << 31 | tag >>> 1) & 0xffffffffL;
+		}
+		Arrays.sort(keys, 0, endpointCount);
+		for (int k = 0; k < endpointCount; k++) {
+			final int low = (int) keys[k];
+			endpointTag[k] = (low & 0x7fffffff) << 1 & ~MAX | low >>> 31;
+			endpointX[k] = boundOf(endpointTag[k]);
+		}
+	}
+
+	/** Returns the x of the endpoint with the tag. */
+	private float boundOf(final int tag) {
+		final float[] bounds = (tag & OCCLUDER) == 0 ? lightBounds : occluderBounds;
+		return bounds[(tag >>> 2) * 4 + ((tag & MAX) == 0 ? 0 : 2)];
+	}
+
+	/**
+	 * Sorts the endpoints along x, which takes few swaps when they have barely moved since the last sort.
+	 *
+	 * @return false if it gave up after about n log n swaps, with the endpoints left partly sorted
+	 */
+	private boolean insertionSort() {
+		swapCount = 0;
+		final int maxSwaps = endpointCount * (32 - Integer.numberOfLeadingZeros(endpointCount));
+		for (int k = 1; k < endpointCount; k++) {
+			final float x = endpointX[k];
+			final int tag = endpointTag[k];
+			int j = k - 1;
+			while (j >= 0 && (endpointX[j] > x || endpointX[j] == x && (endpointTag[j] & MAX) != 0 && (tag & MAX) == 0)) {
+				endpointX[j + 1] = endpointX[j];
+				endpointTag[j + 1] = endpointTag[j];
+				j--;
+			}
+			if (j != k - 1) {
+				endpointX[j + 1] = x;
+				endpointTag[j + 1] = tag;
+				swapCount += k - 1 - j;
+				if (swapCount > maxSwaps) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/** Pairs each light with the occluders it overlaps, walking the endpoints along x. */
+	private void sweep() {
+		if (activeLights.length < lightCount) {
+			activeLights = new int[lightCount * 2];
+		}
+		if (activeOccluders.length < occluderCount) {
+			activeOccluders = new int[occluderCount * 2];
+		}
+		if (activeSlots.length < lightCount + occluderCount) {
+			activeSlots = new int[(lightCount + occluderCount) * 2];
+		}
+
+		int activeLightCount = 0;
+		int activeOccluderCount = 0;
+		pairCount = 0;
+		for (int k = 0; k < endpointCount; k++) {
+			final int tag = endpointTag[k];
+			final int index = tag >>> 2;
+			final boolean isOccluder = (tag & OCCLUDER) != 0;
+			// the slot in activeSlots of each light, then of each occluder
+			final int slot = isOccluder ? lightCount + index : index;
+
+			if ((tag & MAX) != 0) {
+				// swaps the last active one into the place of the one which ends
+				final int[] active = isOccluder ? activeOccluders : activeLights;
+				final int last = isOccluder ? --activeOccluderCount : --activeLightCount;
+				final int place = activeSlots[slot];
+				active[place] = active[last];
+				activeSlots[isOccluder ? lightCount + active[place] : active[place]] = place;
+				continue;
+			}
+
+			if (isOccluder) {
+				final float minY = occluderBounds[index * 4 + 1];
+				final float maxY = occluderBounds[index * 4 + 3];
+				for (int a = 0; a < activeLightCount; a++) {
+					final int light = activeLights[a];
+					if (lightBounds[light * 4 + 1] <= maxY && minY <= lightBounds[light * 4 + 3]) {
+						addPair(light, index);
+					}
+				}
+				activeSlots[slot] = activeOccluderCount;
+				activeOccluders[activeOccluderCount++] = index;
+			} else {
+				final float minY = lightBounds[index * 4 + 1];
+				final float maxY = lightBounds[index * 4 + 3];
+				for (int a = 0; a < activeOccluderCount; a++) {
+					final int occluder = activeOccluders[a];
+					if (occluderBounds[occluder * 4 + 1] <= maxY && minY <= occluderBounds[occluder * 4 + 3]) {
+						addPair(index, occluder);
+					}
+				}
+				activeSlots[slot] = activeLightCount;
+				activeLights[activeLightCount++] = index;
+			}
+		}
+	}
+
+	private void addPair(final int light, final int occluder) {
+		if (pairCount * 2 == pairs.length) {
+			pairs = Arrays.copyOf(pairs, pairs.length * 2);
+		}
+		pairs[pairCount * 2] = light;
+		pairs[pairCount * 2 + 1] = occluder;
+		pairCount++;
+	}
+
+	/** Groups the pairs by light, with the occluders of each light in increasing order, by two counting sorts. */
+	private void group() {
+		if (sortedPairs.length < pairs.length) {
+			sortedPairs = new int[pairs.length];
+		}
+		if (candidates.length < pairCount) {
+			candidates = new int[pairs.length / 2];
+		}
+		if (starts.length < lightCount + 1) {
+			starts = new int[lightCount * 2 + 1];
+		}
+
+		// first by occluder
+		if (counts.length < Math.max(lightCount, occluderCount) + 1) {
+			counts = new int[Math.max(lightCount, occluderCount) * 2 + 1];
+		}
+		Arrays.fill(counts, 0, occluderCount + 1, 0);
+		for (int p = 0; p < pairCount; p++) {
+			counts[pairs[p * 2 + 1] + 1]++;
+		}
+		for (int i = 0; i < occluderCount; i++) {
+			counts[i + 1] += counts[i];
+		}
+		for (int p = 0; p < pairCount; p++) {
+			final int to = counts[pairs[p * 2 + 1]]++;
+			sortedPairs[to * 2] = pairs[p * 2];
+			sortedPairs[to * 2 + 1] = pairs[p * 2 + 1];
+		}
+
+		// then stably by light, which keeps the occluders of each light in order
+		Arrays.fill(starts, 0, lightCount + 1, 0);
+		for (int p = 0; p < pairCount; p++) {
+			starts[sortedPairs[p * 2] + 1]++;
+		}
+		for (int i = 0; i < lightCount; i++) {
+			starts[i + 1] += starts[i];
+		}
+		System.arraycopy(starts, 0, counts, 0, lightCount);
+		for (int p = 0; p < pairCount; p++) {
+			candidates[counts[sortedPairs[p * 2]]++] = sortedPairs[p * 2 + 1];
+		}
+	}
+
+	/** Returns the occluders of every light, grouped by light. */
+	public int[] getCandidates() {
+		return candidates;
+	}
+
+	/** Returns where the occluders of the light start in the candidates. */
+	public int getStart(final int light) {
+		return starts[light];
+	}
+
+	/** Returns where the occluders of the light end in the candidates, exclusive. */
+	public int getEnd(final int light) {
+		return starts[light + 1];
+	}
+
+	/** Returns the amount of overlapping pairs found by the last update. */
+	public int getPairCount() {
+		return pairCount;
+	}
+
+	/** Returns the amount of swaps the last update took to sort the endpoints again. */
+	public int getSwapCount() {
+		return swapCount;
+	}
+}
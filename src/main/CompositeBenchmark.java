@@ -0,0 +1,115 @@
+package main;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import light.Light;
+import utils.AdditiveComposite;
+import utils.GraphicsUtils;
+import utils.Vec2D;
+
+/**
+ * Times drawing many overlapping light textures into an INT_ARGB_PRE lightmap with the default source over compositing
+ * against the {@link AdditiveComposite}, both unclipped and clipped to a shape like the AREA shadows are. The blend
+ * functions the other shadow modes blit with are timed the same way. Meant to be run headless:
+ *
+ * <pre>
+ * java -Djava.awt.headless=true main.CompositeBenchmark
+ * </pre>
+ */
+public final class CompositeBenchmark {
+	private static final long SEED = 42;
+	private static final int WARMUP_FRAMES = 5;
+	private static final int FRAMES = 20;
+	private static final int[] LIGHT_COUNTS = { 10, 50, 200 };
+
+	// Benchmark, cannot instantiate
+	private CompositeBenchmark() {
+	}
+
+	public static void main(final String[] args) {
+		System.out.printf("%-8s %-10s %12s %12s %12s%n", "lights", "composite", "ms/frame", "clipped", "int blit");
+		for (final int count : LIGHT_COUNTS) {
+			final List<Light> lights = randomLights(count, new Random(SEED));
+			System.out.printf("%-8d %-10s %12.2f %12.2f %12.2f%n", count, "SrcOver", time(lights, AlphaComposite.SrcOver, false), time(lights, AlphaComposite.SrcOver, true), timeBlit(lights, false));
+			System.out.printf("%-8d %-10s %12.2f %12.2f %12.2f%n", count, "Additive", time(lights, AdditiveComposite.INSTANCE, false), time(lights, AdditiveComposite.INSTANCE, true), timeBlit(lights, true));
+		}
+	}
+
+	private static List<Light> randomLights(final int count, final Random rand) {
+		final List<Light> lights = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			final Color color = new Color(rand.nextInt(256), rand.nextInt(256), rand.nextInt(256), 100 + rand.nextInt(100));
+			lights.add(new Light(color, new Vec2D(rand.nextInt(LightingTest.getWidth()), rand.nextInt(LightingTest.getHeight())), 100 + rand.nextInt(200)));
+		}
+		return lights;
+	}
+
+	/** Returns the average milliseconds to draw all lights with the composite. */
+	private static double time(final List<Light> lights, final Composite composite, final boolean clipped) {
+		final BufferedImage lightmap = new BufferedImage(LightingTest.getWidth(), LightingTest.getHeight(), BufferedImage.TYPE_INT_ARGB_PRE);
+
+		long start = 0;
+		for (int frame = 0; frame < WARMUP_FRAMES + FRAMES; frame++) {
+			if (frame == WARMUP_FRAMES) {
+				start = System.nanoTime();
+			}
+
+			final Graphics2D g = lightmap.createGraphics();
+			g.setBackground(new Color(255, 255, 255, 0));
+			g.clearRect(0, 0, lightmap.getWidth(), lightmap.getHeight());
+			g.setComposite(composite);
+			for (int i = 0; i < lights.size(); i++) {
+				final Light light = lights.get(i);
+				if (clipped) {
+					g.setClip(new Ellipse2D.Float(light.getX() - light.getRadius() / 2, light.getY() - light.getRadius(), light.getRadius(), light.getRadius() * 2));
+				}
+				g.drawImage(light.image, null, (int) (light.getX() - light.getRadius()), (int) (light.getY() - light.getRadius()));
+			}
+			g.dispose();
+		}
+		return (System.nanoTime() - start) / 1e6 / FRAMES;
+	}
+
+	/** Returns the average milliseconds to blit all lights into the pixels as {@link light.ShadowMask} does. */
+	private static double timeBlit(final List<Light> lights, final boolean additive) {
+		final int width = LightingTest.getWidth();
+		final int height = LightingTest.getHeight();
+		final int[] pixels = new int[width * height];
+
+		long start = 0;
+		for (int frame = 0; frame < WARMUP_FRAMES + FRAMES; frame++) {
+			if (frame == WARMUP_FRAMES) {
+				start = System.nanoTime();
+			}
+
+			Arrays.fill(pixels, 0);
+			for (int l = 0; l < lights.size(); l++) {
+				final Light light = lights.get(l);
+				final int[] texture = light.getPixels();
+				final int size = light.image.getWidth();
+				final int x = (int) (light.getX() - light.getRadius());
+				final int y = (int) (light.getY() - light.getRadius());
+				for (int j = Math.max(0, y); j < Math.min(height, y + size); j++) {
+					final int offset = j * width;
+					final int textureOffset = (j - y) * size - x;
+					for (int i = Math.max(0, x); i < Math.min(width, x + size); i++) {
+						final int src = texture[textureOffset + i];
+						if (src != 0) {
+							pixels[offset + i] = additive ? GraphicsUtils.blendAdd(pixels[offset + i], src, 255) : GraphicsUtils.blendOver(pixels[offset + i], src, 255);
+						}
+					}
+				}
+			}
+		}
+		return (System.nanoTime() - start) / 1e6 / FRAMES;
+	}
+}
@@ -1,5 +1,7 @@
 package main;
 
+import light.ShadowMode;
+
 public final class Constants {
 	public static final boolean OUTLINE_LIGHTS = false;
 	public static final boolean OUTLINE_SHADOWS = false;
@@ -10,8 +12,40 @@ public final class Constants {
 	public static final boolean GLOW = true;
 	public static final float GLOW_AMOUNT = 0.2f;
 
+	/** Replaces the glow and blur when on. */
+	public static final boolean BLOOM = true;
+	public static final int BLOOM_LEVELS = 5;
+	public static final int BLOOM_RADIUS = 2;
+	public static final float BLOOM_SPREAD = 0.6f;
+	public static final float BLOOM_INTENSITY = 0.8f;
+
 	public static final boolean PRETTY_GRAPHICS = true;
 
+	public static final boolean ADDITIVE_LIGHTS = true;
+
+	public static final ShadowMode SHADOW_MODE = ShadowMode.WEDGE;
+	public static final boolean ANTIALIAS_SHADOWS = true;
+
+	public static final float SHADOW_BUDGET_MS = 4;
+	public static final int SHADOW_MAX_STALE_FRAMES = 8;
+	public static final float SHADOW_MOVE_TOLERANCE = 0.5f;
+
+	public static final float POOL_HEADROOM = 1.25f;
+	public static final int POOL_SHRINK_FRAMES = 300;
+
+	public static final int POLAR_BINS = 1024;
+	public static final int POLAR_SOFTNESS = 2;
+
+	public static final int SDF_CELL_SIZE = 2;
+	public static final float SDF_MAX_DISTANCE = 64;
+
+	public static final boolean GLOBAL_ILLUMINATION = false;
+	public static final int GI_SCALE = 4;
+	public static final int GI_DIRECTIONS = 4;
+	public static final float GI_INTERVAL = 1.5f;
+	public static final float GI_ALBEDO = 0.6f;
+	public static final float GI_INTENSITY = 1f;
+
 	private Constants() {
 	}
 }
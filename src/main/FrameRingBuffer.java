@@ -0,0 +1,260 @@
+package main;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A ring of frame slots in a memory mapped file, which the game writes each finished frame into so other processes on
+ * the same host, like a video encoder or a monitoring tool, can map the file and read the frames without any copying
+ * through sockets. All values are little endian.
+ *
+ * The file starts with a header of {@value #HEADER_SIZE} bytes:
+ *
+ * <pre>
+ *  0 int  magic 0x464E5247
+ *  4 int  version
+ *  8 int  slot count
+ * 12 int  max width, frames are cropped to it
+ * 16 int  max height
+ * 20 int  pixel format, 0 for 0x00RRGGBB ints
+ * 24 long sequence of the last ready frame, -1 before the first
+ * </pre>
+ *
+ * It is followed by the slots, each a header of {@value #SLOT_HEADER_SIZE} bytes and max width * max height ints:
+ *
+ * <pre>
+ *  0 long sequence of the frame, starting at 0, frame n is in slot n % slot count
+ *  8 int  state, 0 empty, 1 being written, 2 ready
+ * 12 int  width of the frame
+ * 16 int  height of the frame
+ * 24 long System.nanoTime() when the frame was written
+ * </pre>
+ *
+ * A reader copies a ready slot and then checks that its sequence and state are unchanged, otherwise the writer has
+ * lapped it and the copy is torn. The writer publishes the state of a slot and the header sequence with release
+ * fences, and readers read them with acquire fences, so the pixels are never seen before the state which says they are
+ * ready.
+ */
+public class FrameRingBuffer implements Closeable {
+	static final int MAGIC = 0x464E5247;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 64;
+	static final int SLOT_HEADER_SIZE = 32;
+
+	/** The slot states. */
+	static final int EMPTY = 0;
+	static final int WRITING = 1;
+	static final int READY = 2;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	private final IntBuffer ints;
+	private final int slots;
+	private final int maxWidth, maxHeight;
+	private final int slotSize;
+
+	/** The sequence of the next frame. */
+	private long sequence;
+
+	/**
+	 * Creates or overwrites the file with an empty ring.
+	 *
+	 * @param slots
+	 *            the amount of frames kept, so readers have that many frames of time to copy one
+	 */
+	public FrameRingBuffer(final String path, final int slots, final int maxWidth, final int maxHeight) throws IOException {
+		this.slots = slots;
+		this.maxWidth = maxWidth;
+		this.maxHeight = maxHeight;
+		slotSize = SLOT_HEADER_SIZE + maxWidth * maxHeight * 4;
+
+		file = new RandomAccessFile(path, "rw");
+		final long size = HEADER_SIZE + (long) slots * slotSize;
+		file.setLength(size);
+		buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		ints = buffer.asIntBuffer();
+
+		for (int i = 0; i < slots; i++) {
+			buffer.putInt(HEADER_SIZE + i * slotSize + 8, EMPTY);
+		}
+		buffer.putLong(24, -1);
+		buffer.putInt(20, 0);
+		buffer.putInt(16, maxHeight);
+		buffer.putInt(12, maxWidth);
+		buffer.putInt(8, slots);
+		buffer.putInt(4, VERSION);
+		// the magic goes last, so a reader never sees a half written header
+		Fences.release();
+		buffer.putInt(0, MAGIC);
+	}
+
+	/**
+	 * Writes a frame into the next slot, cropped to the maximum size.
+	 *
+	 * @param pixels
+	 *            the 0x00RRGGBB pixels of the frame, rows of width
+	 */
+	public void write(final int[] pixels, final int width, final int height) {
+		final int slot = HEADER_SIZE + (int) (sequence % slots) * slotSize;
+		final int croppedWidth = Math.min(width, maxWidth);
+		final int croppedHeight = Math.min(height, maxHeight);
+
+		buffer.putInt(slot + 8, WRITING);
+		buffer.putLong(slot, sequence);
+		// a reader copying the slot must see it being written before any of the new pixels
+		Fences.release();
+
+		final int data = (slot + SLOT_HEADER_SIZE) / 4;
+		for (int j = 0; j < croppedHeight; j++) {
+			ints.position(data + j * croppedWidth);
+			ints.put(pixels, j * width, croppedWidth);
+		}
+
+		buffer.putInt(slot + 12, croppedWidth);
+		buffer.putInt(slot + 16, croppedHeight);
+		buffer.putLong(slot + 24, System.nanoTime());
+		Fences.release();
+		buffer.putInt(slot + 8, READY);
+		Fences.release();
+		buffer.putLong(24, sequence);
+		sequence++;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Follows a ring written by another process and prints how many frames arrive each second and how many were missed,
+	 * as an example of a reader:
+	 *
+	 * <pre>
+	 * java main.FrameRingBuffer frames.ring
+	 * </pre>
+	 */
+	public static void main(final String[] args) throws IOException, InterruptedException {
+		if (args.length == 0) {
+			System.err.println("Usage: FrameRingBuffer <ring file>");
+			System.exit(1);
+		}
+
+		try (RandomAccessFile file = new RandomAccessFile(args[0], "r")) {
+			final MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			final int magic = buffer.getInt(0);
+			Fences.acquire();
+			if (magic != MAGIC || buffer.getInt(4) != VERSION) {
+				throw new IOException("Not a frame ring buffer");
+			}
+			final int slots = buffer.getInt(8);
+			final int slotSize = SLOT_HEADER_SIZE + buffer.getInt(12) * buffer.getInt(16) * 4;
+			final IntBuffer ints = buffer.asIntBuffer();
+			int[] frame = new int[0];
+
+			long last = buffer.getLong(24);
+			int frames = 0, torn = 0;
+			long missed = 0;
+			long second = System.nanoTime();
+			while (true) {
+				final long latest = buffer.getLong(24);
+				Fences.acquire();
+				if (latest > last) {
+					final int slot = HEADER_SIZE + (int) (latest % slots) * slotSize;
+					final int size = buffer.getInt(slot + 12) * buffer.getInt(slot + 16);
+					if (frame.length < size) {
+						frame = new int[size];
+					}
+					ints.position((slot + SLOT_HEADER_SIZE) / 4);
+					ints.get(frame, 0, size);
+
+					// the copy has to be read before the state which tells whether it is torn
+					Fences.acquire();
+					if (buffer.getLong(slot) == latest && buffer.getInt(slot + 8) == READY) {
+						frames++;
+						missed += Math.max(0, latest - last - 1);
+					} else {
+						torn++;
+					}
+					last = latest;
+				} else {
+					Thread.sleep(1);
+				}
+
+				if (System.nanoTime() - second >= 1e9) {
+					System.out.printf("%d frames/s, %d missed, %d torn, last frame %d%n", frames, missed, torn, last);
+					frames = torn = 0;
+					missed = 0;
+					second += 1e9;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Memory fences for the accesses to the mapped file, which plain buffer accesses don't order. Uses the fences of
+	 * VarHandle where there are, and those of Unsafe on Java 8, looked up at runtime since neither compiles for both.
+	 * If neither is found, a volatile write or read is used, which HotSpot fences as strongly.
+	 */
+	private static final class Fences {
+		private static final MethodHandle RELEASE = find("releaseFence", "storeFence");
+		private static final MethodHandle ACQUIRE = find("acquireFence", "loadFence");
+
+		/** Written and read as the fences when none are found. */
+		private static volatile int fallback;
+
+		/** Keeps every access before the fence from being reordered with the stores after it. */
+		static void release() {
+			if (RELEASE == null) {
+				fallback = 0;
+				return;
+			}
+			try {
+				RELEASE.invokeExact();
+			} catch (final Throwable e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/** Keeps the loads before the fence from being reordered with every access after it. */
+		static void acquire() {
+			if (ACQUIRE == null) {
+				// only the read matters, not the value
+				final int unused = fallback;
+				return;
+			}
+			try {
+				ACQUIRE.invokeExact();
+			} catch (final Throwable e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private static MethodHandle find(final String varHandleName, final String unsafeName) {
+			final MethodType type = MethodType.methodType(void.class);
+			try {
+				return MethodHandles.publicLookup().findStatic(Class.forName("java.lang.invoke.VarHandle"), varHandleName, type);
+			} catch (final ReflectiveOperationException e) {
+				// Java 8, try Unsafe
+			}
+			try {
+				final Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+				final Field field = unsafe.getDeclaredField("theUnsafe");
+				field.setAccessible(true);
+				return MethodHandles.lookup().findVirtual(unsafe, unsafeName, type).bindTo(field.get(null));
+			} catch (final ReflectiveOperationException | RuntimeException e) {
+				return null;
+			}
+		}
+	}
+}
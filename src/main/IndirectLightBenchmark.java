@@ -0,0 +1,99 @@
+package main;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import light.Light;
+import light.OccluderStore;
+import light.RadianceCascades;
+import light.ShadowMode;
+import light.SmoothLight;
+import utils.Vec2D;
+
+/**
+ * Measures the throughput and quality of the radiance cascades at a few settings on a seeded dense scene. Quality is
+ * the root mean square error of the indirect light against a finer reference cascade, in 0-255 channel units. Meant to
+ * be run headless:
+ *
+ * <pre>
+ * java -Djava.awt.headless=true main.IndirectLightBenchmark
+ * </pre>
+ */
+public final class IndirectLightBenchmark {
+	private static final long SEED = 42;
+	private static final int WARMUP_FRAMES = 3;
+	private static final int FRAMES = 10;
+	private static final int OCCLUDERS = 300;
+
+	/** The scale, base directions and base interval of each setting, the first one being the reference. */
+	private static final float[][] SETTINGS = { { 2, 8, 1 }, { 8, 4, 1 }, { 4, 4, 1.5f }, { 4, 8, 1.5f }, { 2, 4, 1.5f } };
+
+	// Benchmark, cannot instantiate
+	private IndirectLightBenchmark() {
+	}
+
+	public static void main(final String[] args) {
+		final int width = LightingTest.getWidth();
+		final int height = LightingTest.getHeight();
+		final OccluderStore occluders = ShadowBenchmark.denseField(OCCLUDERS, new Random(SEED));
+		final int[] direct = directLight(occluders, width, height);
+		final ForkJoinPool pool = ForkJoinPool.commonPool();
+
+		System.out.printf("%d threads, %dx%d, %d occluders%n", pool.getParallelism(), width, height, OCCLUDERS);
+		System.out.printf("%-6s %-11s %-9s %12s %8s%n", "scale", "directions", "interval", "ms/frame", "rmse");
+
+		int[] reference = null;
+		for (final float[] setting : SETTINGS) {
+			final RadianceCascades cascades = new RadianceCascades(pool, (int) setting[0], (int) setting[1], setting[2]);
+			final int[] indirect = new int[width * height];
+
+			long start = 0;
+			for (int frame = 0; frame < WARMUP_FRAMES + FRAMES; frame++) {
+				if (frame == WARMUP_FRAMES) {
+					start = System.nanoTime();
+				}
+				Arrays.fill(indirect, 0);
+				cascades.update(occluders, direct, width, height);
+				cascades.draw(indirect, width, height, 1);
+			}
+			final double ms = (System.nanoTime() - start) / 1e6 / FRAMES;
+
+			if (reference == null) {
+				reference = indirect;
+				System.out.printf("%-6d %-11d %-9.1f %12.2f %8s%n", (int) setting[0], (int) setting[1], setting[2], ms, "ref");
+			} else {
+				System.out.printf("%-6d %-11d %-9.1f %12.2f %8.2f%n", (int) setting[0], (int) setting[1], setting[2], ms, rmse(reference, indirect));
+			}
+		}
+	}
+
+	/** Draws a few lights in the POLAR mode, which is quick, as the direct light to bounce. */
+	private static int[] directLight(final OccluderStore occluders, final int width, final int height) {
+		final BufferedImage lightmap = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+		final int[] pixels = ((DataBufferInt) lightmap.getRaster().getDataBuffer()).getData();
+		final Color[] colors = { new Color(255, 200, 120, 220), new Color(80, 160, 255, 220), new Color(120, 255, 140, 220) };
+		for (int i = 0; i < colors.length; i++) {
+			final SmoothLight light = new SmoothLight(new Light(colors[i], new Vec2D(width * (i + 1) / 4, height / 2), 250), 2, 3, 5, 90);
+			light.setShadowMode(ShadowMode.POLAR);
+			light.cut(occluders);
+			light.draw(pixels, width, height);
+		}
+		return pixels;
+	}
+
+	/** The root mean square difference of the color channels, which are already premultiplied in INT_ARGB_PRE. */
+	private static double rmse(final int[] a, final int[] b) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			for (int shift = 0; shift <= 16; shift += 8) {
+				final double difference = (a[i] >> shift & 0xff) - (b[i] >> shift & 0xff);
+				sum += difference * difference;
+			}
+		}
+		return Math.sqrt(sum / (a.length * 3));
+	}
+}
@@ -5,8 +5,9 @@ import java.awt.Canvas;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
+import java.awt.Point;
 import java.awt.Polygon;
-import java.awt.Shape;
+import java.awt.Toolkit;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.KeyEvent;
@@ -15,21 +16,46 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionAdapter;
 import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.List;
+import java.awt.image.DataBufferInt;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.swing.JFrame;
 
-import light.Light;
-import light.SmoothLight;
+import light.LightVisibility;
+import light.ShadowScheduler;
+import utils.BufferPool;
 import utils.GraphicsUtils;
-import utils.Vec2D;
 
 public class LightingTest {
 
-	public static void main(final String[] args) {
-		new LightingTest().run();
+	/** The seed of the random placement of lights and boxes. */
+	private static final long SEED = 42;
+
+	/** The amount of frames kept in the frame output for readers to catch up. */
+	private static final int FRAME_SLOTS = 4;
+
+	/**
+	 * Runs the game. With --record file, every change and frame of the scene is logged to the file for a
+	 * {@link SceneReplayer}. With --frames file, every finished frame is written to a {@link FrameRingBuffer} in the
+	 * file for other processes to read.
+	 */
+	public static void main(final String[] args) throws IOException {
+		final LightingTest game = new LightingTest();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("--record")) {
+				game.scene.setRecorder(new SceneRecorder(new FileOutputStream(args[i + 1]), getWidth(), getHeight()));
+				// the window exits the VM, so the log is closed on the way out
+				Runtime.getRuntime().addShutdownHook(new Thread(game.scene::stopRecording));
+			} else if (args[i].equals("--frames")) {
+				final Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+				game.frameOutput = new FrameRingBuffer(args[i + 1], FRAME_SLOTS, screen.width, screen.height);
+			}
+		}
+		game.run();
 	}
 
 	/** The size of the game canvas, initially 640x480. */
@@ -48,23 +74,32 @@ public class LightingTest {
 	/** The buffer strategy used for smooth active rendering. */
 	protected BufferStrategy strategy;
 
-	protected BufferedImage lightmap = GraphicsUtils.toCompatibleImage(new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_ARGB));
-
 	/** True if the game loop is running. */
 	protected boolean running;
 
 	/** The current frames per second, used for debugging performance. */
 	protected int fps = 60;
 
-	/** A list of entities to render. */
-	protected List<Polygon> entities = new ArrayList<>();
-	protected List<SmoothLight> lights = new ArrayList<>();
+	/** The lights, occluders and the pipeline rendering them. */
+	protected final Scene scene = new Scene(getWidth(), getHeight());
+
+	/** Picks the random lights and boxes placed by clicking, seeded so a session can be repeated. */
+	protected final Random random = new Random(SEED);
+
+	/** The clicks since the last update, handed over from the event thread. */
+	private final Queue<Point> clicks = new ConcurrentLinkedQueue<>();
 
 	/** The mouse position */
 	protected int mouseX, mouseY;
 
 	// whether to create a light or create a block
-	protected boolean createLight;
+	protected volatile boolean createLight;
+
+	/** Where finished frames are written for other processes, if anywhere. */
+	protected FrameRingBuffer frameOutput;
+
+	/** The frame rendered off screen to be written to the frame output before it is shown. */
+	private BufferedImage frameImage;
 
 	/** The frame for our GUI. */
 	protected JFrame frame = new JFrame("Shooter Game");
@@ -136,14 +171,22 @@ public class LightingTest {
 			// update the game by a little
 			update(deltaTime / 1e9);
 
+			if (frameOutput != null) {
+				renderFrame();
+			}
+
 			// pretty standard buffer strategy game loop
 			do {
 				do {
 					final Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
-					// clear screen
-					g.setColor(Color.white);
-					g.clearRect(0, 0, width, height);
-					render(g);
+					if (frameOutput != null) {
+						g.drawImage(frameImage, 0, 0, null);
+					} else {
+						// clear screen
+						g.setColor(Color.white);
+						g.clearRect(0, 0, width, height);
+						render(g);
+					}
 					g.dispose();
 				} while (strategy.contentsRestored());
 				strategy.show();
@@ -164,15 +207,37 @@ public class LightingTest {
 		}
 	}
 
+	/** Renders the frame off screen and writes it to the frame output. */
+	private void renderFrame() {
+		final int w = Math.max(1, getWidth());
+		final int h = Math.max(1, getHeight());
+		if (frameImage == null || frameImage.getWidth() != w || frameImage.getHeight() != h) {
+			frameImage = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+		}
+
+		final Graphics2D g = frameImage.createGraphics();
+		g.setColor(Color.darkGray);
+		g.fillRect(0, 0, w, h);
+		render(g);
+		g.dispose();
+
+		frameOutput.write(((DataBufferInt) frameImage.getRaster().getDataBuffer()).getData(), w, h);
+	}
+
 	/** Called on first run to initialize the game and any resources. */
 	protected void init() {
-		entities.add(new Polygon(new int[] { 225, 245, 245, 225 }, new int[] { 245, 245, 275, 285 }, 4));
-		lights.add(new SmoothLight(new Light(new Color(0, 255, 255, 200), new Vec2D(200, 200), 300), 2, 3, 5, 90));
+		scene.addPolygon(new Polygon(new int[] { 225, 245, 245, 225 }, new int[] { 245, 245, 275, 285 }, 4), true);
+		scene.addLight(new Color(0, 255, 255, 200), 200, 200, 300, 2, 3, 5, 90, false);
 	}
 
 	/** Updates the game's entities. */
 	protected void update(final double deltaTime) {
-		lights.get(0).setPosition(mouseX, mouseY);
+		Point click;
+		while ((click = clicks.poll()) != null) {
+			click(click.x, click.y);
+		}
+		scene.setSize(getWidth(), getHeight());
+		scene.setLightPosition(0, mouseX, mouseY);
 	}
 
 	/** Called to render the frame. */
@@ -181,37 +246,60 @@ public class LightingTest {
 			GraphicsUtils.prettyGraphics(g);
 		}
 
+		scene.render(g);
+
+		final ShadowScheduler shadowScheduler = scene.getShadowScheduler();
 		g.setColor(Color.WHITE);
 		g.drawString("FPS: " + fps, 10, 20);
+		g.drawString("Shadows: " + shadowScheduler.getCutCount() + " cut, " + shadowScheduler.getDeferredCount() + " deferred up to " + shadowScheduler.getMaxStaleness() + " frames, " + shadowScheduler.getReusedCount() + " silhouettes reused", 10, 35);
+		final BufferPool buffers = scene.getBuffers();
+		g.drawString(String.format("Buffers: %.1f MB in %d, %d allocated", buffers.getBytes() / 1048576.0, buffers.size(), buffers.getAllocations()), 10, 50);
+		g.drawString("Lights: " + scene.getVisibilityCount(LightVisibility.UNSHADOWED) + " unshadowed, " + scene.getVisibilityCount(LightVisibility.SHADOWED) + " shadowed, " + scene.getVisibilityCount(LightVisibility.OCCLUDED) + " occluded, " + scene.getVisibilityCount(LightVisibility.OFF_SCREEN) + " off screen", 10, 65);
+	}
 
-		final Graphics2D lightGraphics = lightmap.createGraphics();
-		lightGraphics.setBackground(new Color(255, 255, 255, 0));
-		lightGraphics.clearRect(0, 0, width, height);
-
-		// render the shadows first
-		for (int i = 0; i < lights.size(); i++) {
-			final SmoothLight l = lights.get(i);
-			l.cut(entities);
-			l.draw(lightGraphics);
-		}
-
-		lightGraphics.dispose();
-
-		if (Constants.GLOW) {
-			GraphicsUtils.glowFilter(lightmap, Constants.GLOW_AMOUNT);
-		}
+	/** Places a random light or box at the clicked point. */
+	protected void click(final int x, final int y) {
+		if (createLight) {
+			Color c = null;
+			switch (random.nextInt(10)) {
+			case 0:
+				c = Color.YELLOW;
+				break;
+			case 1:
+				c = Color.RED;
+				break;
+			case 2:
+				c = Color.BLUE;
+				break;
+			case 3:
+				c = Color.CYAN;
+				break;
+			case 4:
+				c = Color.GREEN;
+				break;
+			case 5:
+				c = Color.MAGENTA;
+				break;
+			case 6:
+				c = Color.ORANGE;
+				break;
+			case 7:
+				c = Color.PINK;
+				break;
+			case 8:
+			case 9:
+				c = Color.WHITE;
+				break;
 
-		if (Constants.BLUR) {
-			g.drawImage(lightmap, GraphicsUtils.BLUR_FILTER, 0, 0);
+			}
+			c = new Color(c.getRed(), c.getGreen(), c.getBlue(), 100 + random.nextInt(100));
+			// placed lights never move, only the one following the mouse does
+			scene.addLight(c, x, y, random.nextInt(200) + 100, random.nextInt(5) + 1, random.nextInt(5) + 1, random.nextInt(5) + 1, random.nextInt(180), true);
 		} else {
-			g.drawImage(lightmap, null, 0, 0);
-		}
+			final int width = random.nextInt(100);
+			final int height = random.nextInt(100);
 
-		// render each entity
-		for (int i = 0; i < entities.size(); i++) {
-			final Shape e = entities.get(i);
-			g.setColor(Color.WHITE);
-			g.fill(e);
+			scene.addBox(x, y, width, height, true);
 		}
 	}
 
@@ -232,48 +320,8 @@ public class LightingTest {
 
 		@Override
 		public void mouseClicked(final MouseEvent e) {
-			final Random rand = new Random();
-			if (createLight) {
-				Color c = null;
-				switch (rand.nextInt(10)) {
-				case 0:
-					c = Color.YELLOW;
-					break;
-				case 1:
-					c = Color.RED;
-					break;
-				case 2:
-					c = Color.BLUE;
-					break;
-				case 3:
-					c = Color.CYAN;
-					break;
-				case 4:
-					c = Color.GREEN;
-					break;
-				case 5:
-					c = Color.MAGENTA;
-					break;
-				case 6:
-					c = Color.ORANGE;
-					break;
-				case 7:
-					c = Color.PINK;
-					break;
-				case 8:
-				case 9:
-					c = Color.WHITE;
-					break;
-
-				}
-				c = new Color(c.getRed(), c.getGreen(), c.getBlue(), 100 + rand.nextInt(100));
-				lights.add(new SmoothLight(new Light(c, new Vec2D(e.getX(), e.getY()), rand.nextInt(200) + 100), rand.nextInt(5) + 1, rand.nextInt(5) + 1, rand.nextInt(5) + 1, rand.nextInt(180)));
-			} else {
-				final int width = rand.nextInt(100);
-				final int height = rand.nextInt(100);
-
-				entities.add(new Polygon(new int[] { e.getX(), e.getX() + width, e.getX() + width, e.getX() }, new int[] { e.getY(), e.getY(), e.getY() + height, e.getY() + height }, 4));
-			}
+			// handled by the game loop, which owns the scene
+			clicks.add(new Point(e.getX(), e.getY()));
 		}
 
 		@Override
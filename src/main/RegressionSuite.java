@@ -0,0 +1,247 @@
+package main;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageIO;
+
+import light.ShadowMode;
+import light.SmoothLight;
+
+/**
+ * Renders a set of canonical scenes through the whole lighting pipeline and checks them against stored golden images,
+ * a frame time budget and an allocation budget, so changes to the pipeline can be checked for regressions. Meant to be
+ * run headless, and exits with 1 if any scene fails:
+ *
+ * <pre>
+ * java -Djava.awt.headless=true main.RegressionSuite [golden directory] [--update]
+ * </pre>
+ *
+ * Golden images are only written with --update, which writes every one of them from the current output. Without it, a
+ * scene whose golden image is missing fails. The output of a failing scene is written next to its golden image.
+ *
+ * Frame times vary by up to a quarter between runs on the same machine, so a scene only fails on time past its budget
+ * times {@link #TIME_MARGIN}.
+ */
+public final class RegressionSuite {
+	private static final long SEED = 42;
+	private static final int WIDTH = 640, HEIGHT = 480;
+	private static final int WARMUP_FRAMES = 20;
+	private static final int FRAMES = 30;
+
+	/** Where the first light of every scene is placed, which it circles around. */
+	private static final float LIGHT_X = 200, LIGHT_Y = 200;
+
+	/** How much a channel may differ from the golden image, and the fraction of pixels which may differ more. */
+	private static final int TOLERANCE = 8;
+	private static final double MAX_DIFFERENT_PIXELS = 0.001;
+
+	/** How far past its frame time budget a scene may go before it fails, for the noise of wall clock times. */
+	private static final float TIME_MARGIN = 1.5f;
+
+	/**
+	 * The scenes, each with the shadow mode of its lights, its frame time budget in milliseconds and allocation budget in
+	 * kilobytes per frame. The AREA mode builds a new Area of the shadows each cut, so its allocation budget is far higher.
+	 */
+	private static final Case[] CASES = {
+			new Case("single-light", ShadowMode.WEDGE, true, true, false, 25, 64, RegressionSuite::singleLight),
+			new Case("single-light-bloom", ShadowMode.WEDGE, false, false, true, 25, 64, RegressionSuite::singleLight),
+			new Case("dense-occluders", ShadowMode.WEDGE, true, true, false, 100, 64, RegressionSuite::denseOccluders),
+			new Case("colored-lights", ShadowMode.WEDGE, true, true, false, 35, 64, RegressionSuite::coloredLights),
+			new Case("colored-lights-no-glow", ShadowMode.WEDGE, false, true, false, 35, 64, RegressionSuite::coloredLights),
+			new Case("colored-lights-no-blur", ShadowMode.WEDGE, true, false, false, 25, 64, RegressionSuite::coloredLights),
+			new Case("colored-lights-plain", ShadowMode.WEDGE, false, false, false, 20, 64, RegressionSuite::coloredLights),
+			new Case("colored-lights-bloom", ShadowMode.WEDGE, false, false, true, 35, 64, RegressionSuite::coloredLights),
+			new Case("colored-lights-mask", ShadowMode.MASK, true, true, false, 70, 64, RegressionSuite::coloredLights),
+			new Case("colored-lights-area", ShadowMode.AREA, true, true, false, 90, 10240, RegressionSuite::coloredLights),
+			new Case("colored-lights-polar", ShadowMode.POLAR, true, true, false, 25, 64, RegressionSuite::coloredLights),
+			new Case("colored-lights-sdf", ShadowMode.SDF, true, true, false, 70, 64, RegressionSuite::coloredLights), };
+
+	// Test suite, cannot instantiate
+	private RegressionSuite() {
+	}
+
+	public static void main(final String[] args) throws IOException {
+		File directory = new File("golden");
+		boolean update = false;
+		for (final String arg : args) {
+			if (arg.equals("--update")) {
+				update = true;
+			} else {
+				directory = new File(arg);
+			}
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory);
+		}
+
+		int failures = 0;
+		System.out.printf("%-24s %-10s %10s %10s  %s%n", "scene", "image", "ms/frame", "KB/frame", "result");
+		for (final Case c : CASES) {
+			if (!run(c, directory, update)) {
+				failures++;
+			}
+		}
+
+		System.out.println(failures == 0 ? "All scenes passed" : failures + " of " + CASES.length + " scenes failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/** Renders one scene and checks it, returning whether it passed. */
+	private static boolean run(final Case c, final File directory, final boolean update) throws IOException {
+		// an infinite shadow budget, so every light is cut every frame and the output doesn't depend on the timing
+		final Scene scene = new Scene(WIDTH, HEIGHT, Float.POSITIVE_INFINITY);
+		scene.setGlow(c.glow);
+		scene.setBlur(c.blur);
+		scene.setBloom(c.bloom);
+		c.setup.accept(scene);
+		for (final SmoothLight light : scene.getLights()) {
+			light.setShadowMode(c.mode);
+		}
+
+		final BufferedImage screen = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D g = screen.createGraphics();
+		long time = 0;
+		long allocated = 0;
+		for (int frame = 0; frame < WARMUP_FRAMES + FRAMES; frame++) {
+			// the first light circles around its start, so each frame re-cuts its shadows
+			final double angle = frame * 2 * Math.PI / FRAMES;
+			final float x = LIGHT_X + (float) Math.cos(angle) * 40;
+			final float y = LIGHT_Y + (float) Math.sin(angle) * 40;
+
+			final long startAllocated = allocatedBytes();
+			final long start = System.nanoTime();
+			scene.setLightPosition(0, x, y);
+			g.setColor(Color.darkGray);
+			g.fillRect(0, 0, WIDTH, HEIGHT);
+			scene.render(g);
+			if (frame >= WARMUP_FRAMES) {
+				time += System.nanoTime() - start;
+				allocated += allocatedBytes() - startAllocated;
+			}
+		}
+		g.dispose();
+
+		final double millis = time / 1e6 / FRAMES;
+		final double kilobytes = allocated / 1024.0 / FRAMES;
+
+		final File golden = new File(directory, c.name + ".png");
+		final String image;
+		final StringBuilder failures = new StringBuilder();
+		if (update) {
+			ImageIO.write(screen, "png", golden);
+			image = "written";
+		} else if (!golden.exists()) {
+			ImageIO.write(screen, "png", new File(directory, c.name + ".actual.png"));
+			image = "missing";
+			failures.append(" missing golden");
+		} else {
+			final int different = countDifferentPixels(screen, ImageIO.read(golden));
+			if (different >= 0 && different <= MAX_DIFFERENT_PIXELS * WIDTH * HEIGHT) {
+				image = "ok";
+			} else {
+				ImageIO.write(screen, "png", new File(directory, c.name + ".actual.png"));
+				image = different < 0 ? "size" : different + "px";
+				failures.append(" image");
+			}
+		}
+		if (millis > c.budgetMillis * TIME_MARGIN) {
+			failures.append(" time");
+		}
+		if (allocated >= 0 && kilobytes > c.budgetKilobytes) {
+			failures.append(" allocation");
+		}
+
+		System.out.printf("%-24s %-10s %10.2f %10.1f  %s%n", c.name, image, millis, allocated < 0 ? Double.NaN : kilobytes, failures.length() == 0 ? "pass" : "FAIL" + failures);
+		return failures.length() == 0;
+	}
+
+	/** Returns the amount of pixels with a channel further than the tolerance from the golden one, -1 if the sizes differ. */
+	private static int countDifferentPixels(final BufferedImage actual, final BufferedImage golden) {
+		if (golden == null || golden.getWidth() != actual.getWidth() || golden.getHeight() != actual.getHeight()) {
+			return -1;
+		}
+
+		final int[] pixels = ((DataBufferInt) actual.getRaster().getDataBuffer()).getData();
+		final int[] expected = golden.getRGB(0, 0, golden.getWidth(), golden.getHeight(), null, 0, golden.getWidth());
+		int different = 0;
+		for (int i = 0; i < pixels.length; i++) {
+			final int a = pixels[i];
+			final int b = expected[i];
+			if (Math.abs((a >> 16 & 0xFF) - (b >> 16 & 0xFF)) > TOLERANCE || Math.abs((a >> 8 & 0xFF) - (b >> 8 & 0xFF)) > TOLERANCE || Math.abs((a & 0xFF) - (b & 0xFF)) > TOLERANCE) {
+				different++;
+			}
+		}
+		return different;
+	}
+
+	/** Returns the bytes allocated by this thread so far, or -1 if the VM can't tell. */
+	private static long allocatedBytes() {
+		final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/** One light and one box. */
+	private static void singleLight(final Scene scene) {
+		scene.addLight(new Color(255, 255, 200, 200), LIGHT_X, LIGHT_Y, 300, 2, 3, 5, 90, false);
+		scene.addBox(300, 220, 40, 60, true);
+	}
+
+	/** One light in a field of small boxes and circles. */
+	private static void denseOccluders(final Scene scene) {
+		scene.addLight(new Color(255, 255, 255, 200), LIGHT_X, LIGHT_Y, 300, 2, 3, 5, 90, false);
+		final Random rand = new Random(SEED);
+		for (int i = 0; i < 200; i++) {
+			final float x = rand.nextFloat() * WIDTH;
+			final float y = rand.nextFloat() * HEIGHT;
+			if (rand.nextInt(4) == 0) {
+				scene.addCircle(x, y, 3 + rand.nextFloat() * 8, true);
+			} else {
+				scene.addBox(x, y, 5 + rand.nextFloat() * 20, 5 + rand.nextFloat() * 20, true);
+			}
+		}
+	}
+
+	/** Red, green and blue lights overlapping around a few boxes, the last one static. */
+	private static void coloredLights(final Scene scene) {
+		scene.addLight(new Color(255, 0, 0, 180), LIGHT_X, LIGHT_Y, 250, 3, 3, 4, 120, false);
+		scene.addLight(new Color(0, 255, 0, 180), 320, 160, 250, 3, 3, 4, 60, false);
+		scene.addLight(new Color(0, 0, 255, 180), 280, 300, 250, 3, 3, 4, 170, true);
+		scene.addBox(240, 220, 30, 30, true);
+		scene.addBox(360, 260, 50, 20, true);
+		scene.addCircle(420, 180, 15, true);
+	}
+
+	/** A canonical scene, the shadow mode of its lights and its budgets. */
+	private static final class Case {
+		final String name;
+		final ShadowMode mode;
+		final boolean glow;
+		final boolean blur;
+		final boolean bloom;
+		final float budgetMillis;
+		final float budgetKilobytes;
+		final Consumer<Scene> setup;
+
+		Case(final String name, final ShadowMode mode, final boolean glow, final boolean blur, final boolean bloom, final float budgetMillis, final float budgetKilobytes, final Consumer<Scene> setup) {
+			this.name = name;
+			this.mode = mode;
+			this.glow = glow;
+			this.blur = blur;
+			this.bloom = bloom;
+			this.budgetMillis = budgetMillis;
+			this.budgetKilobytes = budgetKilobytes;
+			this.setup = setup;
+		}
+	}
+}
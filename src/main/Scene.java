@@ -0,0 +1,403 @@
+package main;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import light.Light;
+import light.LightAnimator;
+import light.LightQuery;
+import light.LightVisibility;
+import light.OccluderMerger;
+import light.OccluderStore;
+import light.ParallelLightmap;
+import light.RadianceCascades;
+import light.ShadowScheduler;
+import light.SmoothLight;
+import light.StaticLightLayer;
+import utils.BloomPyramid;
+import utils.BufferPool;
+import utils.GraphicsUtils;
+import utils.Vec2D;
+
+/**
+ * The lights and occluders of the game and the pipeline which renders them, without any window or input, so it can be
+ * driven by the game as well as headless by a {@link SceneReplayer}. Every change to the scene goes through its
+ * methods, so that a {@link SceneRecorder} can log it.
+ */
+public class Scene {
+	/** Holds the lightmap and the scratch buffers of the pipeline between frames. */
+	protected final BufferPool buffers = new BufferPool(Constants.POOL_HEADROOM, Constants.POOL_SHRINK_FRAMES);
+
+	/** The lightmap of this frame, taken from the buffers at the size of the scene. */
+	protected BufferedImage lightmap;
+	private int width;
+	private int height;
+
+	/** The occluders which are rendered on top of the lights. */
+	protected final OccluderStore occluders = new OccluderStore();
+
+	/** The occluders merged into fewer convex pieces, which cast the shadows. */
+	protected final OccluderMerger shadowOccluders = new OccluderMerger(occluders);
+
+	protected final List<SmoothLight> lights = new ArrayList<>();
+
+	/** The cached light of the static lights, which the dynamic lights are drawn on top of. */
+	protected final StaticLightLayer staticLight = new StaticLightLayer(shadowOccluders.getMerged(), buffers);
+
+	/** Cuts the shadows of the dynamic lights within a time budget each frame. */
+	protected final ShadowScheduler shadowScheduler;
+
+	/** The lights which aren't baked this frame, re-used between frames. */
+	private final List<SmoothLight> liveLights = new ArrayList<>();
+
+	/** How many of the live lights were of each visibility last frame. */
+	private final int[] visibilityCounts = new int[LightVisibility.values().length];
+
+	/** Draws the dynamic lights on several threads. */
+	protected final ParallelLightmap parallelLights = new ParallelLightmap(ForkJoinPool.commonPool(), buffers);
+
+	/** How lit any point is, published each frame for gameplay code on other threads. */
+	protected final LightQuery lightQuery = new LightQuery();
+
+	/** The bounce light of the occluders, added to the lightmap when GLOBAL_ILLUMINATION is on. */
+	protected final RadianceCascades indirectLight = new RadianceCascades(ForkJoinPool.commonPool(), Constants.GI_SCALE, Constants.GI_DIRECTIONS, Constants.GI_INTERVAL);
+
+	/** Spreads a wide glow around the lights when bloom is on. */
+	protected final BloomPyramid bloomPyramid = new BloomPyramid(Constants.BLOOM_LEVELS, Constants.BLOOM_RADIUS, Constants.BLOOM_SPREAD, buffers);
+
+	/** Moves and flickers the animated lights. */
+	protected final LightAnimator animator = new LightAnimator();
+
+	/** The index in lights of each light of the animator. */
+	private int[] animatedLights = new int[16];
+
+	/** A path which is re-used to fill each occluder. */
+	private final Path2D.Float occluderPath = new Path2D.Float();
+
+	/** Logs every change and frame, if recording. */
+	private SceneRecorder recorder;
+
+	/**
+	 * Whether the lightmap is bloomed, or else glowed and blurred, by default as set in {@link Constants}.
+	 */
+	private boolean bloom = Constants.BLOOM;
+	private boolean glow = Constants.GLOW;
+	private boolean blur = Constants.BLUR;
+
+	/** Creates an empty scene with a lightmap of the given size and the default shadow budget. */
+	public Scene(final int width, final int height) {
+		this(width, height, Constants.SHADOW_BUDGET_MS);
+	}
+
+	/**
+	 * @param shadowBudgetMillis
+	 *            the time to spend on shadow cuts each frame, infinite to always cut every light, which makes the
+	 *            frames deterministic
+	 */
+	public Scene(final int width, final int height, final float shadowBudgetMillis) {
+		this.width = Math.max(1, width);
+		this.height = Math.max(1, height);
+		lightmap = buffers.getImage("lightmap", this.width, this.height);
+		shadowScheduler = new ShadowScheduler(shadowBudgetMillis, Constants.SHADOW_MAX_STALE_FRAMES);
+	}
+
+	/**
+	 * Adds a box occluder.
+	 *
+	 * @return the index of the new occluder
+	 */
+	public int addBox(final float x, final float y, final float width, final float height, final boolean isStatic) {
+		final int index = occluders.addBox(x, y, width, height);
+		occluders.setStatic(index, isStatic);
+		if (recorder != null) {
+			recorder.addBox(x, y, width, height, isStatic);
+		}
+		return index;
+	}
+
+	/**
+	 * Adds a circle occluder.
+	 *
+	 * @return the index of the new occluder
+	 */
+	public int addCircle(final float x, final float y, final float radius, final boolean isStatic) {
+		final int index = occluders.addCircle(x, y, radius);
+		occluders.setStatic(index, isStatic);
+		if (recorder != null) {
+			recorder.addCircle(x, y, radius, isStatic);
+		}
+		return index;
+	}
+
+	/**
+	 * Adds a polygon occluder from the first n coordinates of xs and ys.
+	 *
+	 * @return the index of the new occluder
+	 */
+	public int addPolygon(final float[] xs, final float[] ys, final int n, final boolean isStatic) {
+		final int index = occluders.add(xs, ys, n);
+		occluders.setStatic(index, isStatic);
+		if (recorder != null) {
+			recorder.addPolygon(xs, ys, n, isStatic);
+		}
+		return index;
+	}
+
+	/**
+	 * Adds a polygon occluder.
+	 *
+	 * @return the index of the new occluder
+	 */
+	public int addPolygon(final Polygon p, final boolean isStatic) {
+		final float[] xs = new float[p.npoints];
+		final float[] ys = new float[p.npoints];
+		for (int i = 0; i < p.npoints; i++) {
+			xs[i] = p.xpoints[i];
+			ys[i] = p.ypoints[i];
+		}
+		return addPolygon(xs, ys, p.npoints, isStatic);
+	}
+
+	/** Removes the occluder at index. Every occluder after it moves down by one index. */
+	public void removeOccluder(final int index) {
+		occluders.remove(index);
+		if (recorder != null) {
+			recorder.removeOccluder(index);
+		}
+	}
+
+	/**
+	 * Adds a light, see {@link SmoothLight#SmoothLight(Light, int, int, int, int)} for its parameters.
+	 *
+	 * @return the new light
+	 */
+	public SmoothLight addLight(final Color color, final float x, final float y, final float radius, final int circles, final int oneLayerProjection, final int layers, final int angle, final boolean isStatic) {
+		final SmoothLight light = new SmoothLight(new Light(color, new Vec2D(x, y), radius), circles, oneLayerProjection, layers, angle);
+		light.setStatic(isStatic);
+		lights.add(light);
+		if (recorder != null) {
+			recorder.addLight(color, x, y, radius, circles, oneLayerProjection, layers, angle, isStatic);
+		}
+		return light;
+	}
+
+	/** Resizes the lightmap from the next frame on, to at least one pixel each way. */
+	public void setSize(final int width, final int height) {
+		if (Math.max(1, width) == this.width && Math.max(1, height) == this.height) {
+			return;
+		}
+
+		this.width = Math.max(1, width);
+		this.height = Math.max(1, height);
+		if (recorder != null) {
+			recorder.resize(this.width, this.height);
+		}
+	}
+
+	/** Moves the light at index to (x, y). */
+	public void setLightPosition(final int index, final float x, final float y) {
+		final Light center = lights.get(index).getCenter();
+		if (center.getX() == x && center.getY() == y) {
+			return;
+		}
+
+		lights.get(index).setPosition(x, y);
+		if (recorder != null) {
+			recorder.moveLight(index, x, y);
+		}
+	}
+
+	/** Sets how strongly the light at index is drawn, from 0 to 1. */
+	public void setLightIntensity(final int index, final float intensity) {
+		final SmoothLight light = lights.get(index);
+		if (light.getIntensity() == intensity) {
+			return;
+		}
+
+		light.setIntensity(intensity);
+		if (recorder != null) {
+			recorder.setLightIntensity(index, intensity);
+		}
+	}
+
+	/**
+	 * Hands the light at index over to the animator, which then moves it on each {@link #animate(float)}.
+	 *
+	 * @return the index of the light in the animator, to give it a motion and intensity curves
+	 */
+	public int animateLight(final int index) {
+		final int animated = animator.add(lights.get(index));
+		if (animated == animatedLights.length) {
+			animatedLights = Arrays.copyOf(animatedLights, animated * 2);
+		}
+		animatedLights[animated] = index;
+		return animated;
+	}
+
+	/**
+	 * Advances the animated lights.
+	 *
+	 * @param deltaTime
+	 *            the time since the last call, in seconds
+	 * @return the amount of lights which moved
+	 */
+	public int animate(final float deltaTime) {
+		final int moved = animator.update(deltaTime);
+		if (recorder != null) {
+			for (int i = 0; i < animator.getChangedCount(); i++) {
+				final int animated = animator.getChanged(i);
+				recorder.moveLight(animatedLights[animated], animator.getX(animated), animator.getY(animated));
+				recorder.setLightIntensity(animatedLights[animated], animator.getIntensity(animated));
+			}
+		}
+		return moved;
+	}
+
+	/** Renders the lights and then the occluders on top of them. */
+	public void render(final Graphics2D g) {
+		if (recorder != null) {
+			recorder.frame();
+		}
+
+		shadowOccluders.update();
+		lightmap = buffers.getImage("lightmap", width, height);
+
+		// start from the baked static lights, which replaces clearing the lightmap
+		final int[] pixels = ((DataBufferInt) lightmap.getRaster().getDataBuffer()).getData();
+		staticLight.update(lights, lightmap.getWidth(), lightmap.getHeight());
+		staticLight.draw(pixels);
+
+		liveLights.clear();
+		for (int i = 0; i < lights.size(); i++) {
+			if (!staticLight.isBaked(lights.get(i))) {
+				liveLights.add(lights.get(i));
+			}
+		}
+		shadowScheduler.cut(liveLights, shadowOccluders.getMerged(), lightmap.getWidth() / 2f, lightmap.getHeight() / 2f, new Rectangle(0, 0, lightmap.getWidth(), lightmap.getHeight()));
+
+		Arrays.fill(visibilityCounts, 0);
+		for (int i = 0; i < liveLights.size(); i++) {
+			visibilityCounts[liveLights.get(i).getVisibility(width, height).ordinal()]++;
+		}
+
+		// render the shadows of the dynamic lights on top
+		parallelLights.draw(liveLights, lightmap);
+
+		lightQuery.publish(lights);
+
+		if (Constants.GLOBAL_ILLUMINATION) {
+			indirectLight.update(shadowOccluders.getMerged(), pixels, lightmap.getWidth(), lightmap.getHeight());
+			indirectLight.draw(pixels, lightmap.getWidth(), lightmap.getHeight(), Constants.GI_INTENSITY);
+		}
+
+		if (bloom) {
+			bloomPyramid.apply(pixels, width, height, Constants.BLOOM_INTENSITY);
+		} else {
+			if (glow) {
+				GraphicsUtils.glowFilter(lightmap, Constants.GLOW_AMOUNT);
+			}
+			if (blur) {
+				GraphicsUtils.BLUR_FILTER.filter(pixels, pixels, buffers.getArray("blur", width * height), width, height);
+			}
+		}
+		g.drawImage(lightmap, null, 0, 0);
+		buffers.endFrame();
+
+		// render each entity
+		g.setColor(Color.WHITE);
+		for (int i = 0; i < occluders.size(); i++) {
+			occluderPath.reset();
+			occluders.appendTo(i, occluderPath);
+			if (occluders.getType(i) == OccluderStore.SEGMENT) {
+				g.draw(occluderPath);
+			} else {
+				g.fill(occluderPath);
+			}
+		}
+	}
+
+	/** Starts logging every change and frame to the recorder, or stops if it is null. */
+	public void setRecorder(final SceneRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/** Stops recording and closes the recorder, if recording. */
+	public void stopRecording() {
+		if (recorder == null) {
+			return;
+		}
+		try {
+			recorder.close();
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			recorder = null;
+		}
+	}
+
+	public void setBloom(final boolean bloom) {
+		this.bloom = bloom;
+	}
+
+	public void setGlow(final boolean glow) {
+		this.glow = glow;
+	}
+
+	public void setBlur(final boolean blur) {
+		this.blur = blur;
+	}
+
+	/** Returns the width of the lightmap from the next frame on. */
+	public int getWidth() {
+		return width;
+	}
+
+	/** Returns the height of the lightmap from the next frame on. */
+	public int getHeight() {
+		return height;
+	}
+
+	public BufferedImage getLightmap() {
+		return lightmap;
+	}
+
+	public OccluderStore getOccluders() {
+		return occluders;
+	}
+
+	public List<SmoothLight> getLights() {
+		return lights;
+	}
+
+	public ShadowScheduler getShadowScheduler() {
+		return shadowScheduler;
+	}
+
+	/** Returns how many of the lights which weren't baked had the visibility in the last frame. */
+	public int getVisibilityCount(final LightVisibility visibility) {
+		return visibilityCounts[visibility.ordinal()];
+	}
+
+	public LightAnimator getAnimator() {
+		return animator;
+	}
+
+	public LightQuery getLightQuery() {
+		return lightQuery;
+	}
+
+	public BufferPool getBuffers() {
+		return buffers;
+	}
+}
@@ -0,0 +1,227 @@
+package main;
+
+import java.awt.Color;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+
+import light.SmoothLight;
+
+/**
+ * Generates seeded stress scenes of many lights and occluders, so benchmarks and load tests can use the same
+ * reproducible worst cases. The same seed and settings always give the same scene. A scene is either generated into a
+ * {@link Scene} in memory, or written as a log for a {@link SceneReplayer} in which the dynamic lights move around:
+ *
+ * <pre>
+ * java -Djava.awt.headless=true main.SceneGenerator scene.log [lights] [occluders] [uniform|corridors|city_blocks] [frames]
+ * </pre>
+ */
+public class SceneGenerator {
+	/** The frame length written to generated logs, 60 frames per second. */
+	private static final int FRAME_MICROS = 16667;
+
+	private static final Color[] COLORS = { Color.YELLOW, Color.RED, Color.BLUE, Color.CYAN, Color.GREEN, Color.MAGENTA, Color.ORANGE, Color.PINK, Color.WHITE };
+
+	private final long seed;
+
+	private int lightCount = 8;
+	private int occluderCount = 200;
+
+	/** The smallest and largest occluder, and how much the sizes lean towards the smallest. */
+	private float minSize = 5, maxSize = 30, sizeSkew = 2;
+	private Clustering clustering = Clustering.UNIFORM;
+
+	private float minRadius = 100, maxRadius = 300;
+	private int minCircles = 1, maxCircles = 5;
+	private int minLayers = 1, maxLayers = 5;
+	private int minProjection = 1, maxProjection = 5;
+	private int minAngle = 0, maxAngle = 180;
+
+	/** The fractions of lights and occluders which aren't static. */
+	private float dynamicLights = 0.5f;
+	private float dynamicOccluders = 0;
+
+	public SceneGenerator(final long seed) {
+		this.seed = seed;
+	}
+
+	public static void main(final String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: SceneGenerator <log> [lights] [occluders] [uniform|corridors|city_blocks] [frames]");
+			System.exit(1);
+		}
+
+		final SceneGenerator generator = new SceneGenerator(42);
+		if (args.length > 1) {
+			generator.setLightCount(Integer.parseInt(args[1]));
+		}
+		if (args.length > 2) {
+			generator.setOccluderCount(Integer.parseInt(args[2]));
+		}
+		if (args.length > 3) {
+			generator.setClustering(Clustering.valueOf(args[3].toUpperCase()));
+		}
+		final int frames = args.length > 4 ? Integer.parseInt(args[4]) : 600;
+
+		try (OutputStream out = new FileOutputStream(args[0])) {
+			generator.write(out, LightingTest.getWidth(), LightingTest.getHeight(), frames);
+		}
+	}
+
+	/** Adds the occluders and lights to the scene, which is expected to be empty and as large as the generated one. */
+	public void generate(final Scene scene) {
+		final Random rand = new Random(seed);
+		final int width = scene.getLightmap().getWidth();
+		final int height = scene.getLightmap().getHeight();
+
+		for (int i = 0; i < occluderCount; i++) {
+			addOccluder(scene, rand, width, height);
+		}
+
+		for (int i = 0; i < lightCount; i++) {
+			final Color c = COLORS[rand.nextInt(COLORS.length)];
+			final Color color = new Color(c.getRed(), c.getGreen(), c.getBlue(), 100 + rand.nextInt(100));
+			final float radius = minRadius + rand.nextFloat() * (maxRadius - minRadius);
+			scene.addLight(color, rand.nextFloat() * width, rand.nextFloat() * height, radius, between(rand, minCircles, maxCircles), between(rand, minProjection, maxProjection), between(rand, minLayers, maxLayers), between(rand, minAngle, maxAngle), rand.nextFloat() >= dynamicLights);
+		}
+	}
+
+	/**
+	 * Writes the scene and the given amount of frames as a log, in which every dynamic light circles around where it was
+	 * placed, and some of them flicker.
+	 */
+	public void write(final OutputStream out, final int width, final int height, final int frames) throws IOException {
+		final Scene scene = new Scene(width, height);
+		final SceneRecorder recorder = new SceneRecorder(out, width, height);
+		scene.setRecorder(recorder);
+		generate(scene);
+
+		final List<SmoothLight> lights = scene.getLights();
+		final Random rand = new Random(seed);
+		for (int i = 0; i < lights.size(); i++) {
+			if (lights.get(i).isStatic()) {
+				continue;
+			}
+
+			final int animated = scene.animateLight(i);
+			final float x = lights.get(i).getCenter().getX();
+			final float y = lights.get(i).getCenter().getY();
+			final float orbit = 20 + rand.nextFloat() * 80;
+			final float speed = (rand.nextBoolean() ? 1 : -1) * (0.5f + rand.nextFloat() * 2);
+			// circle around where the light was placed, starting from it
+			scene.getAnimator().setOrbit(animated, x - orbit, y, orbit, speed, 0);
+			if (rand.nextInt(4) == 0) {
+				scene.getAnimator().setFlicker(animated, 0.3f + rand.nextFloat() * 0.4f, 4 + rand.nextFloat() * 8);
+			}
+		}
+
+		for (int frame = 0; frame < frames; frame++) {
+			scene.animate(FRAME_MICROS / 1e6f);
+			recorder.frame(FRAME_MICROS);
+		}
+		recorder.close();
+	}
+
+	/** Adds one occluder placed as the clustering wants it. */
+	private void addOccluder(final Scene scene, final Random rand, final int width, final int height) {
+		final float size = minSize + (float) Math.pow(rand.nextFloat(), sizeSkew) * (maxSize - minSize);
+		final boolean isStatic = rand.nextFloat() >= dynamicOccluders;
+
+		switch (clustering) {
+		case CORRIDORS: {
+			// walls every 4 sizes of the largest occluder, made of long thin boxes with gaps between them
+			final float spacing = maxSize * 4;
+			final int walls = Math.max(1, (int) (height / spacing));
+			final float y = (rand.nextInt(walls) + 0.5f) * spacing;
+			scene.addBox(rand.nextFloat() * width, y, size * 3, Math.max(2, size / 4), isStatic);
+			break;
+		}
+		case CITY_BLOCKS: {
+			// blocks of 6 by 6 of the largest occluder, with streets half a block wide
+			final float block = maxSize * 6;
+			final float cell = block * 1.5f;
+			final int columns = Math.max(1, (int) (width / cell));
+			final int rows = Math.max(1, (int) (height / cell));
+			final float x = rand.nextInt(columns) * cell + rand.nextFloat() * (block - size);
+			final float y = rand.nextInt(rows) * cell + rand.nextFloat() * (block - size);
+			scene.addBox(x, y, size, size * (0.5f + rand.nextFloat()), isStatic);
+			break;
+		}
+		default:
+			final float x = rand.nextFloat() * width;
+			final float y = rand.nextFloat() * height;
+			if (rand.nextInt(4) == 0) {
+				scene.addCircle(x, y, size / 2, isStatic);
+			} else {
+				scene.addBox(x, y, size, size * (0.5f + rand.nextFloat()), isStatic);
+			}
+			break;
+		}
+	}
+
+	/** Returns a random int from min to max, inclusive. */
+	private static int between(final Random rand, final int min, final int max) {
+		return min + rand.nextInt(Math.max(1, max - min + 1));
+	}
+
+	public void setLightCount(final int lightCount) {
+		this.lightCount = lightCount;
+	}
+
+	public void setOccluderCount(final int occluderCount) {
+		this.occluderCount = occluderCount;
+	}
+
+	/**
+	 * @param skew
+	 *            the power of the random number picking the size, 1 for evenly spread sizes and larger for mostly
+	 *            small occluders
+	 */
+	public void setOccluderSize(final float min, final float max, final float skew) {
+		minSize = min;
+		maxSize = max;
+		sizeSkew = skew;
+	}
+
+	public void setClustering(final Clustering clustering) {
+		this.clustering = clustering;
+	}
+
+	public void setLightRadius(final float min, final float max) {
+		minRadius = min;
+		maxRadius = max;
+	}
+
+	/** Sets the ranges of the parameters of the lights, see {@link SmoothLight#SmoothLight}. */
+	public void setLightShape(final int minCircles, final int maxCircles, final int minLayers, final int maxLayers, final int minAngle, final int maxAngle) {
+		this.minCircles = minCircles;
+		this.maxCircles = maxCircles;
+		this.minLayers = minLayers;
+		this.maxLayers = maxLayers;
+		this.minAngle = minAngle;
+		this.maxAngle = maxAngle;
+	}
+
+	public void setLightProjection(final int min, final int max) {
+		minProjection = min;
+		maxProjection = max;
+	}
+
+	/** Sets the fractions of lights and occluders which aren't static. */
+	public void setDynamicFraction(final float lights, final float occluders) {
+		dynamicLights = lights;
+		dynamicOccluders = occluders;
+	}
+
+	/** How occluders are spread over the scene. */
+	public enum Clustering {
+		/** Anywhere in the scene. */
+		UNIFORM,
+		/** Along long horizontal walls with doorways, like the corridors of a building. */
+		CORRIDORS,
+		/** Packed into square blocks separated by empty streets. */
+		CITY_BLOCKS
+	}
+}
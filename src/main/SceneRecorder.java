@@ -0,0 +1,203 @@
+package main;
+
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Writes every change to a {@link Scene} and every rendered frame to a compact binary log, which a
+ * {@link SceneReplayer} can play back as a repeatable benchmark.
+ *
+ * The log starts with a header of the magic number, the format version and the lightmap size as ints. It is followed
+ * by records of a one byte type and their fields, where every frame record holds the microseconds since the previous
+ * frame. Changes are applied before the frame record which follows them.
+ *
+ * The recorder can be closed from another thread than the one recording, like a shutdown hook, so every record is
+ * written under its lock, and records after it was closed are dropped.
+ */
+public class SceneRecorder implements Closeable {
+	static final int MAGIC = 0x4C495445;
+	static final int VERSION = 2;
+
+	/** The record types. */
+	static final byte FRAME = 0;
+	static final byte ADD_BOX = 1;
+	static final byte ADD_CIRCLE = 2;
+	static final byte ADD_POLYGON = 3;
+	static final byte REMOVE_OCCLUDER = 4;
+	static final byte ADD_LIGHT = 5;
+	static final byte MOVE_LIGHT = 6;
+	static final byte SET_LIGHT_INTENSITY = 7;
+	static final byte RESIZE = 8;
+
+	private final DataOutputStream out;
+
+	/** Whether the recorder was closed, after which records are dropped. */
+	private boolean closed;
+
+	/** When the last frame was recorded. */
+	private long lastFrame = System.nanoTime();
+
+	/**
+	 * Starts a log of a scene with a lightmap of the given size.
+	 *
+	 * @param out
+	 *            the stream to write to, which is closed with the recorder
+	 */
+	public SceneRecorder(final OutputStream out, final int width, final int height) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(out));
+		this.out.writeInt(MAGIC);
+		this.out.writeInt(VERSION);
+		this.out.writeInt(width);
+		this.out.writeInt(height);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		closed = true;
+		out.close();
+	}
+
+	void frame() {
+		final long now = System.nanoTime();
+		frame((int) Math.min(Integer.MAX_VALUE, (now - lastFrame) / 1000));
+		lastFrame = now;
+	}
+
+	/** Records a frame which took the given microseconds, for logs which are generated rather than recorded. */
+	synchronized void frame(final int micros) {
+		if (closed) {
+			return;
+		}
+		try {
+			out.writeByte(FRAME);
+			out.writeInt(micros);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	synchronized void addBox(final float x, final float y, final float width, final float height, final boolean isStatic) {
+		if (closed) {
+			return;
+		}
+		try {
+			out.writeByte(ADD_BOX);
+			out.writeFloat(x);
+			out.writeFloat(y);
+			out.writeFloat(width);
+			out.writeFloat(height);
+			out.writeBoolean(isStatic);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	synchronized void addCircle(final float x, final float y, final float radius, final boolean isStatic) {
+		if (closed) {
+			return;
+		}
+		try {
+			out.writeByte(ADD_CIRCLE);
+			out.writeFloat(x);
+			out.writeFloat(y);
+			out.writeFloat(radius);
+			out.writeBoolean(isStatic);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	synchronized void addPolygon(final float[] xs, final float[] ys, final int n, final boolean isStatic) {
+		if (closed) {
+			return;
+		}
+		try {
+			out.writeByte(ADD_POLYGON);
+			out.writeInt(n);
+			for (int i = 0; i < n; i++) {
+				out.writeFloat(xs[i]);
+				out.writeFloat(ys[i]);
+			}
+			out.writeBoolean(isStatic);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	synchronized void removeOccluder(final int index) {
+		if (closed) {
+			return;
+		}
+		try {
+			out.writeByte(REMOVE_OCCLUDER);
+			out.writeInt(index);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	synchronized void addLight(final Color color, final float x, final float y, final float radius, final int circles, final int oneLayerProjection, final int layers, final int angle, final boolean isStatic) {
+		if (closed) {
+			return;
+		}
+		try {
+			out.writeByte(ADD_LIGHT);
+			out.writeInt(color.getRGB());
+			out.writeFloat(x);
+			out.writeFloat(y);
+			out.writeFloat(radius);
+			out.writeByte(circles);
+			out.writeByte(oneLayerProjection);
+			out.writeByte(layers);
+			out.writeShort(angle);
+			out.writeBoolean(isStatic);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	synchronized void moveLight(final int index, final float x, final float y) {
+		if (closed) {
+			return;
+		}
+		try {
+			out.writeByte(MOVE_LIGHT);
+			out.writeInt(index);
+			out.writeFloat(x);
+			out.writeFloat(y);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	synchronized void setLightIntensity(final int index, final float intensity) {
+		if (closed) {
+			return;
+		}
+		try {
+			out.writeByte(SET_LIGHT_INTENSITY);
+			out.writeInt(index);
+			out.writeFloat(intensity);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	synchronized void resize(final int width, final int height) {
+		if (closed) {
+			return;
+		}
+		try {
+			out.writeByte(RESIZE);
+			out.writeInt(width);
+			out.writeInt(height);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
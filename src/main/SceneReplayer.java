@@ -0,0 +1,210 @@
+package main;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Plays back a log written by a {@link SceneRecorder} as fast as possible and prints the frame time statistics. The
+ * shadow budget is turned off, so every frame is rendered the same way on every run, and with --checksums the CRC32 of
+ * each rendered frame is printed to compare two runs or two versions of the pipeline. Meant to be run headless:
+ *
+ * <pre>
+ * java -Djava.awt.headless=true main.SceneReplayer scene.log [--checksums]
+ * </pre>
+ */
+public final class SceneReplayer {
+	// Benchmark, cannot instantiate
+	private SceneReplayer() {
+	}
+
+	public static void main(final String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: SceneReplayer <log> [--checksums]");
+			System.exit(1);
+		}
+		final boolean checksums = args.length > 1 && args[1].equals("--checksums");
+
+		try (InputStream in = new FileInputStream(args[0])) {
+			final Result result = replay(in, checksums);
+			if (checksums) {
+				for (int i = 0; i < result.frameCount; i++) {
+					System.out.printf("frame %d %08x%n", i, result.checksums[i]);
+				}
+			}
+			result.print();
+		}
+	}
+
+	/** Replays the whole log, computing the checksum of every frame if asked to. */
+	public static Result replay(final InputStream stream, final boolean checksums) throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+		if (in.readInt() != SceneRecorder.MAGIC) {
+			throw new IOException("Not a scene log");
+		}
+		final int version = in.readInt();
+		if (version != SceneRecorder.VERSION) {
+			throw new IOException("Unsupported scene log version: " + version);
+		}
+		final int width = in.readInt();
+		final int height = in.readInt();
+
+		final Scene scene = new Scene(width, height, Float.POSITIVE_INFINITY);
+		BufferedImage screen = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) screen.getRaster().getDataBuffer()).getData();
+		ByteBuffer bytes = ByteBuffer.allocate(pixels.length * 4);
+		final CRC32 crc = new CRC32();
+
+		final Result result = new Result();
+		long micros;
+		while ((micros = readFrame(in, scene)) >= 0) {
+			// resize records resize the lightmap, so the screen follows to checksum whole frames
+			if (scene.getWidth() != screen.getWidth() || scene.getHeight() != screen.getHeight()) {
+				screen = new BufferedImage(scene.getWidth(), scene.getHeight(), BufferedImage.TYPE_INT_RGB);
+				pixels = ((DataBufferInt) screen.getRaster().getDataBuffer()).getData();
+				bytes = ByteBuffer.allocate(pixels.length * 4);
+			}
+
+			final Graphics2D g = screen.createGraphics();
+			g.setColor(Color.darkGray);
+			g.fillRect(0, 0, screen.getWidth(), screen.getHeight());
+
+			final long start = System.nanoTime();
+			scene.render(g);
+			final long time = System.nanoTime() - start;
+			g.dispose();
+
+			long checksum = 0;
+			if (checksums) {
+				bytes.clear();
+				bytes.asIntBuffer().put(pixels);
+				crc.reset();
+				crc.update(bytes);
+				checksum = crc.getValue();
+			}
+			result.add(time, micros, checksum);
+		}
+		return result;
+	}
+
+	/**
+	 * Applies the changes up to and including the next frame record to the scene.
+	 *
+	 * @return the recorded microseconds since the previous frame, or -1 at the end of the log
+	 */
+	static long readFrame(final DataInputStream in, final Scene scene) throws IOException {
+		while (true) {
+			final int type;
+			try {
+				type = in.readByte();
+			} catch (final EOFException e) {
+				return -1;
+			}
+
+			switch (type) {
+			case SceneRecorder.FRAME:
+				return in.readInt();
+			case SceneRecorder.ADD_BOX:
+				scene.addBox(in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat(), in.readBoolean());
+				break;
+			case SceneRecorder.ADD_CIRCLE:
+				scene.addCircle(in.readFloat(), in.readFloat(), in.readFloat(), in.readBoolean());
+				break;
+			case SceneRecorder.ADD_POLYGON:
+				final int n = in.readInt();
+				final float[] xs = new float[n];
+				final float[] ys = new float[n];
+				for (int i = 0; i < n; i++) {
+					xs[i] = in.readFloat();
+					ys[i] = in.readFloat();
+				}
+				scene.addPolygon(xs, ys, n, in.readBoolean());
+				break;
+			case SceneRecorder.REMOVE_OCCLUDER:
+				scene.removeOccluder(in.readInt());
+				break;
+			case SceneRecorder.ADD_LIGHT:
+				scene.addLight(new Color(in.readInt(), true), in.readFloat(), in.readFloat(), in.readFloat(), in.readUnsignedByte(), in.readUnsignedByte(), in.readUnsignedByte(), in.readUnsignedShort(), in.readBoolean());
+				break;
+			case SceneRecorder.MOVE_LIGHT:
+				scene.setLightPosition(in.readInt(), in.readFloat(), in.readFloat());
+				break;
+			case SceneRecorder.SET_LIGHT_INTENSITY:
+				scene.setLightIntensity(in.readInt(), in.readFloat());
+				break;
+			case SceneRecorder.RESIZE:
+				scene.setSize(in.readInt(), in.readInt());
+				break;
+			default:
+				throw new IOException("Unknown scene log record: " + type);
+			}
+		}
+	}
+
+	/** The frame times and checksums of a replay. */
+	public static final class Result {
+		private int frameCount;
+		private long[] times = new long[256];
+		private long[] checksums = new long[256];
+		private long recordedMicros;
+
+		private void add(final long time, final long micros, final long checksum) {
+			if (frameCount == times.length) {
+				times = Arrays.copyOf(times, frameCount * 2);
+				checksums = Arrays.copyOf(checksums, frameCount * 2);
+			}
+			times[frameCount] = time;
+			checksums[frameCount] = checksum;
+			frameCount++;
+			recordedMicros += micros;
+		}
+
+		public int getFrameCount() {
+			return frameCount;
+		}
+
+		/** Returns the render time of the frame in nanoseconds. */
+		public long getTime(final int frame) {
+			return times[frame];
+		}
+
+		/** Returns the checksum of the frame, or 0 if checksums weren't computed. */
+		public long getChecksum(final int frame) {
+			return checksums[frame];
+		}
+
+		/** Returns the render time in milliseconds which the given fraction of the frames stay within. */
+		public double getPercentile(final double fraction) {
+			if (frameCount == 0) {
+				return 0;
+			}
+			final long[] sorted = Arrays.copyOf(times, frameCount);
+			Arrays.sort(sorted);
+			return sorted[Math.min(frameCount - 1, (int) Math.ceil(fraction * frameCount) - 1)] / 1e6;
+		}
+
+		public double getMeanMillis() {
+			long sum = 0;
+			for (int i = 0; i < frameCount; i++) {
+				sum += times[i];
+			}
+			return frameCount == 0 ? 0 : sum / 1e6 / frameCount;
+		}
+
+		void print() {
+			System.out.printf("%d frames, %.1f s recorded%n", frameCount, recordedMicros / 1e6);
+			System.out.printf("%-8s %-8s %-8s %-8s %-8s%n", "mean", "p50", "p95", "p99", "max");
+			System.out.printf("%-8.2f %-8.2f %-8.2f %-8.2f %-8.2f%n", getMeanMillis(), getPercentile(0.5), getPercentile(0.95), getPercentile(0.99), getPercentile(1));
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package main;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import light.Light;
+import light.OccluderStore;
+import light.ShadowMode;
+import light.SmoothLight;
+import utils.Vec2D;
+
+/**
+ * Times every shadow mode against each other on dense, seeded occluder fields. The lights move every frame so their
+ * shadows are rebuilt each time. Meant to be run headless:
+ *
+ * <pre>
+ * java -Djava.awt.headless=true main.ShadowBenchmark
+ * </pre>
+ */
+public final class ShadowBenchmark {
+	private static final long SEED = 42;
+	private static final int WARMUP_FRAMES = 3;
+	private static final int FRAMES = 10;
+	private static final int LIGHTS = 4;
+	private static final int[] OCCLUDER_COUNTS = { 50, 200, 1000 };
+
+	// Benchmark, cannot instantiate
+	private ShadowBenchmark() {
+	}
+
+	public static void main(final String[] args) {
+		System.out.printf("%-10s %-8s %12s%n", "occluders", "mode", "ms/frame");
+		for (final int count : OCCLUDER_COUNTS) {
+			final OccluderStore occluders = denseField(count, new Random(SEED));
+			for (final ShadowMode mode : ShadowMode.values()) {
+				System.out.printf("%-10d %-8s %12.2f%n", count, mode, time(mode, occluders));
+			}
+		}
+	}
+
+	/** Fills the canvas with small boxes and circles. */
+	static OccluderStore denseField(final int count, final Random rand) {
+		final OccluderStore occluders = new OccluderStore();
+		for (int i = 0; i < count; i++) {
+			final float x = rand.nextFloat() * LightingTest.getWidth();
+			final float y = rand.nextFloat() * LightingTest.getHeight();
+			if (rand.nextInt(4) == 0) {
+				occluders.addCircle(x, y, 3 + rand.nextFloat() * 8);
+			} else {
+				occluders.addBox(x, y, 5 + rand.nextFloat() * 20, 5 + rand.nextFloat() * 20);
+			}
+		}
+		return occluders;
+	}
+
+	/** Returns the average milliseconds to cut and draw all lights in the given mode. */
+	private static double time(final ShadowMode mode, final OccluderStore occluders) {
+		final Random rand = new Random(SEED);
+		final List<SmoothLight> lights = new ArrayList<>();
+		for (int i = 0; i < LIGHTS; i++) {
+			final Light center = new Light(new Color(rand.nextInt(256), rand.nextInt(256), rand.nextInt(256), 200), new Vec2D(rand.nextInt(LightingTest.getWidth()), rand.nextInt(LightingTest.getHeight())), 150 + rand.nextInt(150));
+			final SmoothLight light = new SmoothLight(center, 2, 3, 5, 90);
+			light.setShadowMode(mode);
+			lights.add(light);
+		}
+
+		final BufferedImage lightmap = new BufferedImage(LightingTest.getWidth(), LightingTest.getHeight(), BufferedImage.TYPE_INT_ARGB_PRE);
+		final int[] pixels = ((DataBufferInt) lightmap.getRaster().getDataBuffer()).getData();
+
+		long start = 0;
+		for (int frame = 0; frame < WARMUP_FRAMES + FRAMES; frame++) {
+			if (frame == WARMUP_FRAMES) {
+				start = System.nanoTime();
+			}
+
+			final Graphics2D g = lightmap.createGraphics();
+			g.setBackground(new Color(255, 255, 255, 0));
+			g.clearRect(0, 0, lightmap.getWidth(), lightmap.getHeight());
+
+			for (int i = 0; i < lights.size(); i++) {
+				final SmoothLight light = lights.get(i);
+				// wiggle the light so its shadows are rebuilt
+				light.setPosition(200 + i * 80 + frame % 2, 240);
+				light.cut(occluders);
+				if (mode == ShadowMode.AREA) {
+					light.draw(g);
+				} else {
+					light.draw(pixels, lightmap.getWidth(), lightmap.getHeight());
+				}
+			}
+			g.dispose();
+		}
+		return (System.nanoTime() - start) / 1e6 / FRAMES;
+	}
+}
@@ -234,6 +234,25 @@ public abstract class AbstractFilter implements BufferedImageOp {
 			return dst;
 		}
 
+		/**
+		 * <p>
+		 * Blurs the pixels without allocating any image or pixels array, the same as {@link #filter}. The source and
+		 * destination can be the same array, to blur in place.
+		 * </p>
+		 *
+		 * @param srcPixels
+		 *            the INT_ARGB or INT_ARGB_PRE source pixels, rows of width
+		 * @param dstPixels
+		 *            the destination pixels, in the same format, rows of width
+		 * @param scratch
+		 *            holds the pixels between both passes, at least width * height long
+		 */
+		public void filter(final int[] srcPixels, final int[] dstPixels, final int[] scratch, final int width, final int height) {
+			// the horizontal pass stores its result transposed, which the vertical pass turns back
+			blur(srcPixels, scratch, width, height, radius);
+			blur(scratch, dstPixels, height, width, radius);
+		}
+
 		/**
 		 * <p>
 		 * Blurs the source pixels into the destination pixels. The force of the blur is specified by the radius which
@@ -0,0 +1,145 @@
+package utils;
+
+import java.awt.Composite;
+import java.awt.CompositeContext;
+import java.awt.RenderingHints;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Adds the source to the destination instead of blending it over, so overlapping lights brighten each other instead of
+ * the top one hiding the others. The premultiplied colors and the alphas saturate at 255, as in
+ * {@link GraphicsUtils#blendAdd}, and the source is scaled by the alpha of the composite.
+ *
+ * INT_ARGB_PRE rasters, like the lightmap and the light textures, are composited directly on their int arrays, anything
+ * else through the color models.
+ */
+public final class AdditiveComposite implements Composite {
+	/** Adds the source at its full strength. */
+	public static final AdditiveComposite INSTANCE = new AdditiveComposite(1);
+
+	private final float alpha;
+
+	private AdditiveComposite(final float alpha) {
+		this.alpha = alpha;
+	}
+
+	/**
+	 * Returns a composite which adds the source scaled by the alpha.
+	 *
+	 * @param alpha
+	 *            from 0 to 1
+	 */
+	public static AdditiveComposite getInstance(final float alpha) {
+		return alpha == 1 ? INSTANCE : new AdditiveComposite(Math.max(0, Math.min(1, alpha)));
+	}
+
+	public float getAlpha() {
+		return alpha;
+	}
+
+	@Override
+	public CompositeContext createContext(final ColorModel srcColorModel, final ColorModel dstColorModel, final RenderingHints hints) {
+		return new Context(srcColorModel, dstColorModel, Math.round(alpha * 255));
+	}
+
+	/** Returns whether the color model stores premultiplied ARGB in one int per pixel. */
+	private static boolean isIntArgbPre(final ColorModel model) {
+		if (!(model instanceof DirectColorModel) || !model.isAlphaPremultiplied() || model.getTransferType() != DataBuffer.TYPE_INT) {
+			return false;
+		}
+		final DirectColorModel direct = (DirectColorModel) model;
+		return direct.getAlphaMask() == 0xff000000 && direct.getRedMask() == 0xff0000 && direct.getGreenMask() == 0xff00 && direct.getBlueMask() == 0xff;
+	}
+
+	/** Returns the index in the int array of the raster's pixel at (x, y), or -1 if it isn't a packed int raster. */
+	private static int offset(final Raster raster, final int x, final int y) {
+		if (!(raster.getDataBuffer() instanceof DataBufferInt) || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+			return -1;
+		}
+		final SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+		return raster.getDataBuffer().getOffset() + model.getOffset(x - raster.getSampleModelTranslateX(), y - raster.getSampleModelTranslateY());
+	}
+
+	private static int stride(final Raster raster) {
+		return ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+	}
+
+	private static final class Context implements CompositeContext {
+		private final ColorModel srcColorModel;
+		private final ColorModel dstColorModel;
+		private final boolean isIntArgbPre;
+
+		/** The alpha of the composite, from 0 to 255. */
+		private final int alpha;
+
+		Context(final ColorModel srcColorModel, final ColorModel dstColorModel, final int alpha) {
+			this.srcColorModel = srcColorModel;
+			this.dstColorModel = dstColorModel;
+			this.alpha = alpha;
+			isIntArgbPre = isIntArgbPre(srcColorModel) && isIntArgbPre(dstColorModel);
+		}
+
+		@Override
+		public void compose(final Raster src, final Raster dstIn, final WritableRaster dstOut) {
+			final int width = Math.min(src.getWidth(), dstIn.getWidth());
+			final int height = Math.min(src.getHeight(), dstIn.getHeight());
+
+			final int srcOffset = offset(src, src.getMinX(), src.getMinY());
+			final int dstInOffset = offset(dstIn, dstIn.getMinX(), dstIn.getMinY());
+			final int dstOutOffset = offset(dstOut, dstOut.getMinX(), dstOut.getMinY());
+			if (isIntArgbPre && srcOffset >= 0 && dstInOffset >= 0 && dstOutOffset >= 0) {
+				composeInts(src, dstIn, dstOut, srcOffset, dstInOffset, dstOutOffset, width, height);
+			} else {
+				composeAny(src, dstIn, dstOut, width, height);
+			}
+		}
+
+		/** Adds directly on the int arrays of the rasters. */
+		private void composeInts(final Raster src, final Raster dstIn, final WritableRaster dstOut, final int srcOffset, final int dstInOffset, final int dstOutOffset, final int width, final int height) {
+			final int[] srcPixels = ((DataBufferInt) src.getDataBuffer()).getData();
+			final int[] dstInPixels = ((DataBufferInt) dstIn.getDataBuffer()).getData();
+			final int[] dstOutPixels = ((DataBufferInt) dstOut.getDataBuffer()).getData();
+			final int srcStride = stride(src);
+			final int dstInStride = stride(dstIn);
+			final int dstOutStride = stride(dstOut);
+
+			for (int j = 0; j < height; j++) {
+				int s = srcOffset + j * srcStride;
+				int d = dstInOffset + j * dstInStride;
+				int o = dstOutOffset + j * dstOutStride;
+				for (int i = 0; i < width; i++, s++, d++, o++) {
+					final int pixel = srcPixels[s];
+					dstOutPixels[o] = pixel == 0 ? dstInPixels[d] : GraphicsUtils.blendAdd(dstInPixels[d], pixel, alpha);
+				}
+			}
+		}
+
+		/** Adds through the color models, premultiplying the colors they give, for any other kind of raster. */
+		private void composeAny(final Raster src, final Raster dstIn, final WritableRaster dstOut, final int width, final int height) {
+			Object srcElements = null;
+			Object dstElements = null;
+			for (int j = 0; j < height; j++) {
+				for (int i = 0; i < width; i++) {
+					srcElements = src.getDataElements(src.getMinX() + i, src.getMinY() + j, srcElements);
+					dstElements = dstIn.getDataElements(dstIn.getMinX() + i, dstIn.getMinY() + j, dstElements);
+					final int pixel = srcColorModel.getRGB(srcElements);
+					if (pixel >>> 24 != 0) {
+						final int result = GraphicsUtils.blendAdd(GraphicsUtils.premultiply(dstColorModel.getRGB(dstElements)), GraphicsUtils.premultiply(pixel), alpha);
+						dstElements = dstColorModel.getDataElements(GraphicsUtils.unpremultiply(result), dstElements);
+					}
+					dstOut.setDataElements(dstOut.getMinX() + i, dstOut.getMinY() + j, dstElements);
+				}
+			}
+		}
+
+		@Override
+		public void dispose() {
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package utils;
+
+import java.util.stream.IntStream;
+
+import utils.AbstractFilter.FastBlurFilter;
+
+/**
+ * Adds a wide, smooth glow around the bright parts of a lightmap. The lightmap is halved again and again into a chain
+ * of levels, each level is blurred with a small radius, and the levels are then upsampled and mixed back from the
+ * smallest to the largest. A small blur on a level of 1/32 of the size spreads as far as a blur 32 times as large on
+ * the lightmap would, at a tiny fraction of the cost.
+ *
+ * The levels are kept in a {@link BufferPool} between frames and blurred in parallel, and every other pass is split
+ * by rows. All pixels are INT_ARGB_PRE.
+ */
+public class BloomPyramid {
+	/** How an upsampled row is combined with the row it is upsampled into. */
+	private static final int MIX = 0;
+	private static final int ADD = 1;
+
+	private final int levelCount;
+	private final FastBlurFilter blur;
+
+	/** How much of each level comes from the smaller levels, from 0 to 255, which sets how far the glow spreads. */
+	private final int spread;
+
+	private final BufferPool buffers;
+
+	/** The names of the buffers of each level in the pool. */
+	private final String[] levelNames;
+	private final String[] scratchNames;
+
+	/** The pixels and size of each level this frame, the first being half the size of the lightmap. */
+	private final int[][] levels;
+	private final int[][] scratches;
+	private final int[] widths;
+	private final int[] heights;
+
+	/**
+	 * @param levelCount
+	 *            the amount of levels, each half the size of the one above
+	 * @param radius
+	 *            the radius of the blur of each level, in pixels of that level
+	 * @param spread
+	 *            how much of each level comes from the smaller levels, from 0 to 1
+	 * @param buffers
+	 *            the pool to take the levels from
+	 */
+	public BloomPyramid(final int levelCount, final int radius, final float spread, final BufferPool buffers) {
+		this.levelCount = Math.max(1, levelCount);
+		blur = new FastBlurFilter(radius);
+		this.spread = Math.round(Math.max(0, Math.min(1, spread)) * 255);
+		this.buffers = buffers;
+
+		levelNames = new String[this.levelCount];
+		scratchNames = new String[this.levelCount];
+		for (int k = 0; k < this.levelCount; k++) {
+			levelNames[k] = "bloom level " + k;
+			scratchNames[k] = "bloom scratch " + k;
+		}
+		levels = new int[this.levelCount][];
+		scratches = new int[this.levelCount][];
+		widths = new int[this.levelCount];
+		heights = new int[this.levelCount];
+	}
+
+	/**
+	 * Adds the bloom of the pixels to them.
+	 *
+	 * @param pixels
+	 *            the INT_ARGB_PRE pixels, rows of width
+	 * @param intensity
+	 *            how strongly the bloom is added, from 0 to 1
+	 */
+	public void apply(final int[] pixels, final int width, final int height, final float intensity) {
+		// the pool isn't thread safe, so every buffer is taken before any work is split
+		int w = width;
+		int h = height;
+		for (int k = 0; k < levelCount; k++) {
+			w = (w + 1) / 2;
+			h = (h + 1) / 2;
+			widths[k] = w;
+			heights[k] = h;
+			levels[k] = buffers.getArray(levelNames[k], w * h);
+			scratches[k] = buffers.getArray(scratchNames[k], w * h);
+		}
+
+		downsample(pixels, width, height, 0);
+		for (int k = 1; k < levelCount; k++) {
+			downsample(levels[k - 1], widths[k - 1], heights[k - 1], k);
+		}
+
+		IntStream.range(0, levelCount).parallel().forEach(k -> blur.filter(levels[k], levels[k], scratches[k], widths[k], heights[k]));
+
+		for (int k = levelCount - 2; k >= 0; k--) {
+			mixUp(k);
+		}
+
+		final int coverage = Math.round(Math.max(0, Math.min(1, intensity)) * 255);
+		IntStream.range(0, height).parallel().forEach(y -> upsampleRow(levels[0], widths[0], heights[0], pixels, width, y, ADD, coverage));
+	}
+
+	/** Averages each 2x2 block of the source into a pixel of the level. */
+	private void downsample(final int[] src, final int srcWidth, final int srcHeight, final int level) {
+		final int[] dst = levels[level];
+		final int width = widths[level];
+		IntStream.range(0, heights[level]).parallel().forEach(y -> {
+			final int row0 = 2 * y * srcWidth;
+			final int row1 = Math.min(srcHeight - 1, 2 * y + 1) * srcWidth;
+			for (int x = 0; x < width; x++) {
+				final int x0 = 2 * x;
+				final int x1 = Math.min(srcWidth - 1, x0 + 1);
+				final int p00 = src[row0 + x0];
+				final int p10 = src[row0 + x1];
+				final int p01 = src[row1 + x0];
+				final int p11 = src[row1 + x1];
+				// two channels per int, in 16 bits each, which the sum of four can't overflow
+				final int rb = (p00 & 0xff00ff) + (p10 & 0xff00ff) + (p01 & 0xff00ff) + (p11 & 0xff00ff);
+				final int ag = (p00 >>> 8 & 0xff00ff) + (p10 >>> 8 & 0xff00ff) + (p01 >>> 8 & 0xff00ff) + (p11 >>> 8 & 0xff00ff);
+				dst[y * width + x] = ag << 6 & 0xff00ff00 | rb >>> 2 & 0xff00ff;
+			}
+		});
+	}
+
+	/** Mixes the upsampled level below into the level, by the spread. */
+	private void mixUp(final int level) {
+		final int[] src = levels[level + 1];
+		final int srcWidth = widths[level + 1];
+		final int srcHeight = heights[level + 1];
+		IntStream.range(0, heights[level]).parallel().forEach(y -> upsampleRow(src, srcWidth, srcHeight, levels[level], widths[level], y, MIX, spread));
+	}
+
+	/**
+	 * Upsamples the source into a row of a level twice its size, interpolating each pixel bilinearly between the four
+	 * nearest source pixels, and combines it with the row.
+	 *
+	 * @param mode
+	 *            {@link #MIX} or {@link #ADD}
+	 * @param factor
+	 *            the spread to mix by, or the coverage to add by
+	 */
+	private static void upsampleRow(final int[] src, final int srcWidth, final int srcHeight, final int[] dst, final int width, final int y, final int mode, final int factor) {
+		// a pixel is a quarter of a source pixel away from the nearest, so the weights are in quarters each way
+		final int row0 = Math.max(0, y - 1 >> 1) * srcWidth;
+		final int row1 = Math.min(srcHeight - 1, y + 1 >> 1) * srcWidth;
+		final int wy0 = (y & 1) == 0 ? 1 : 3;
+		final int wy1 = 4 - wy0;
+
+		// the even pixel 2m is between the source columns m - 1 and m, the odd one between m and m + 1, so each
+		// column is interpolated vertically once and shared by the pixels next to it
+		int previousRb = columnRb(src, row0, row1, 0, wy0, wy1);
+		int previousAg = columnAg(src, row0, row1, 0, wy0, wy1);
+		int currentRb = previousRb;
+		int currentAg = previousAg;
+		final int offset = y * width;
+		for (int m = 0; 2 * m < width; m++) {
+			final int next = Math.min(srcWidth - 1, m + 1);
+			final int nextRb = columnRb(src, row0, row1, next, wy0, wy1);
+			final int nextAg = columnAg(src, row0, row1, next, wy0, wy1);
+
+			// in sixteenths, which two channels of 16 bits each can hold
+			final int even = (previousAg + currentAg * 3) << 4 & 0xff00ff00 | (previousRb + currentRb * 3) >>> 4 & 0xff00ff;
+			combine(dst, offset + 2 * m, even, mode, factor);
+			if (2 * m + 1 < width) {
+				final int odd = (currentAg * 3 + nextAg) << 4 & 0xff00ff00 | (currentRb * 3 + nextRb) >>> 4 & 0xff00ff;
+				combine(dst, offset + 2 * m + 1, odd, mode, factor);
+			}
+
+			previousRb = currentRb;
+			previousAg = currentAg;
+			currentRb = nextRb;
+			currentAg = nextAg;
+		}
+	}
+
+	/** Returns the red and blue of the source column between both rows, weighted in quarters. */
+	private static int columnRb(final int[] src, final int row0, final int row1, final int column, final int wy0, final int wy1) {
+		return (src[row0 + column] & 0xff00ff) * wy0 + (src[row1 + column] & 0xff00ff) * wy1;
+	}
+
+	/** Returns the alpha and green of the source column between both rows, weighted in quarters. */
+	private static int columnAg(final int[] src, final int row0, final int row1, final int column, final int wy0, final int wy1) {
+		return (src[row0 + column] >>> 8 & 0xff00ff) * wy0 + (src[row1 + column] >>> 8 & 0xff00ff) * wy1;
+	}
+
+	private static void combine(final int[] dst, final int i, final int value, final int mode, final int factor) {
+		if (mode == MIX) {
+			// can't overflow, since each channel is a weighted average
+			dst[i] = GraphicsUtils.scale(dst[i], 255 - factor) + GraphicsUtils.scale(value, factor);
+		} else {
+			// only the color is added, raising the alpha no more than it needs, or the glow would darken what is
+			// underneath the lightmap wherever it is faint
+			final int glow = GraphicsUtils.scale(value, factor);
+			if ((glow & 0xffffff) != 0) {
+				dst[i] = GraphicsUtils.addLight(dst[i], glow >> 16 & 0xff, glow >> 8 & 0xff, glow & 0xff);
+			}
+		}
+	}
+}
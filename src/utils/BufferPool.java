@@ -0,0 +1,152 @@
+package utils;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the large int buffers of the rendering pipeline between frames, each under a name, so a frame of the same size
+ * as the last one allocates nothing, and resizing the window doesn't allocate on every frame of the drag.
+ *
+ * A buffer which has to grow is allocated with some headroom, so growing a little at a time only reallocates once in
+ * a while. A buffer is only shrunk once it has stayed much smaller than its capacity for a number of frames, and a
+ * buffer nobody asked for in that time is released.
+ *
+ * Not thread safe, buffers are expected to be taken on the rendering thread.
+ */
+public class BufferPool {
+	/** The color model of INT_ARGB_PRE images. */
+	private static final ColorModel PREMULTIPLIED = new DirectColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), 32, 0xff0000, 0xff00, 0xff, 0xff000000, true, DataBuffer.TYPE_INT);
+
+	/** How much larger than asked a buffer is allocated. */
+	private final float headroom;
+
+	/** The frames a buffer has to stay small or unused before it is shrunk or released. */
+	private final int shrinkFrames;
+
+	private final Map<String, Buffer> buffers = new LinkedHashMap<>();
+
+	/** The amount of buffers allocated since the pool was created. */
+	private int allocations;
+
+	/**
+	 * @param headroom
+	 *            how much larger than asked a buffer is allocated, at least 1
+	 * @param shrinkFrames
+	 *            the frames a buffer has to stay small or unused before it is shrunk or released
+	 */
+	public BufferPool(final float headroom, final int shrinkFrames) {
+		this.headroom = Math.max(1, headroom);
+		this.shrinkFrames = shrinkFrames;
+	}
+
+	/**
+	 * Returns the array of the name, holding at least length ints. The contents are left from whoever used it last,
+	 * or zeros if it was just allocated.
+	 */
+	public int[] getArray(final String name, final int length) {
+		Buffer buffer = buffers.get(name);
+		if (buffer == null) {
+			buffer = new Buffer();
+			buffers.put(name, buffer);
+		}
+
+		if (buffer.data.length < length) {
+			buffer.data = new int[(int) Math.min(Integer.MAX_VALUE - 8, (long) Math.ceil(length * (double) headroom))];
+			buffer.image = null;
+			allocations++;
+		}
+		buffer.used = Math.max(buffer.used, length);
+		return buffer.data;
+	}
+
+	/**
+	 * Returns the INT_ARGB_PRE image of the name, backed by its array with rows of exactly width pixels. The same image is
+	 * returned for as long as the size stays the same, with the contents left from the last frame. It is cleared when
+	 * its size changes.
+	 */
+	public BufferedImage getImage(final String name, final int width, final int height) {
+		final int[] data = getArray(name, width * height);
+		final Buffer buffer = buffers.get(name);
+
+		if (buffer.image == null || buffer.image.getWidth() != width || buffer.image.getHeight() != height) {
+			if (buffer.image != null) {
+				// the old rows don't line up with the new ones
+				Arrays.fill(data, 0, width * height, 0);
+			}
+			final int[] masks = { 0xff0000, 0xff00, 0xff, 0xff000000 };
+			buffer.image = new BufferedImage(PREMULTIPLIED, Raster.createPackedRaster(new DataBufferInt(data, width * height), width, height, width, masks, null), true, null);
+		}
+		return buffer.image;
+	}
+
+	/** Ends the frame, shrinking or releasing the buffers which have been too large or unused long enough. */
+	public void endFrame() {
+		final Iterator<Buffer> it = buffers.values().iterator();
+		while (it.hasNext()) {
+			final Buffer buffer = it.next();
+			if (buffer.used * headroom * headroom < buffer.data.length) {
+				buffer.smallFrames++;
+			} else {
+				buffer.smallFrames = 0;
+			}
+
+			if (buffer.smallFrames >= shrinkFrames) {
+				if (buffer.used == 0) {
+					it.remove();
+				} else {
+					// allocated again at the size of this frame when next asked for
+					buffer.data = new int[0];
+					buffer.image = null;
+					buffer.smallFrames = 0;
+				}
+			}
+			buffer.used = 0;
+		}
+	}
+
+	/** Releases every buffer. */
+	public void clear() {
+		buffers.clear();
+	}
+
+	/** Returns the bytes held by all buffers. */
+	public long getBytes() {
+		long bytes = 0;
+		for (final Buffer buffer : buffers.values()) {
+			bytes += buffer.data.length * 4L;
+		}
+		return bytes;
+	}
+
+	/** Returns the amount of buffers held. */
+	public int size() {
+		return buffers.size();
+	}
+
+	/** Returns the amount of buffers allocated since the pool was created. */
+	public int getAllocations() {
+		return allocations;
+	}
+
+	private static final class Buffer {
+		private int[] data = new int[0];
+
+		/** The image over data, if one was asked for. */
+		private BufferedImage image;
+
+		/** The most ints asked for this frame. */
+		private int used;
+
+		/** The frames in a row the buffer was much larger than asked for. */
+		private int smallFrames;
+	}
+}
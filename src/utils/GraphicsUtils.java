@@ -29,10 +29,22 @@ public final class GraphicsUtils {
 	/** The Constant RAND. */
 	private static final Random RAND = new Random();
 
-	/** The Constant GFX_CONFIG. */
-	private static final GraphicsConfiguration GFX_CONFIG = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+	/** The Constant GFX_CONFIG, null when running headless. */
+	private static final GraphicsConfiguration GFX_CONFIG = GraphicsEnvironment.isHeadless() ? null : GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
 
-	public static final AbstractFilter BLUR_FILTER = new FastBlurFilter(Constants.BLUR_AMOUNT);
+	/**
+	 * 255 / alpha for each alpha, to turn premultiplied channels back into straight ones with a multiplication. The
+	 * small bias makes the result round down like the division does, since the fractions of the exact quotients are
+	 * at least 1 / 255 apart.
+	 */
+	private static final float[] UNPREMULTIPLY = new float[256];
+	static {
+		for (int alpha = 1; alpha < 256; alpha++) {
+			UNPREMULTIPLY[alpha] = 255f / alpha * (1 + 1e-5f);
+		}
+	}
+
+	public static final FastBlurFilter BLUR_FILTER = new FastBlurFilter(Constants.BLUR_AMOUNT);
 
 	// Utility class, cannot instantiate
 	private GraphicsUtils() {
@@ -86,9 +98,10 @@ public final class GraphicsUtils {
 	 */
 	public static BufferedImage toCompatibleImage(final BufferedImage image) {
 		/*
-		 * if image is already compatible and optimized for current system settings, simply return it
+		 * if image is already compatible and optimized for current system settings, or there is no screen to be
+		 * compatible with, simply return it
 		 */
-		if (image.getColorModel().equals(GFX_CONFIG.getColorModel())) {
+		if (GFX_CONFIG == null || image.getColorModel().equals(GFX_CONFIG.getColorModel())) {
 			return image;
 		}
 
@@ -153,7 +166,8 @@ public final class GraphicsUtils {
 	}
 
 	/**
-	 * Applies a glow filter on the src image.
+	 * Applies a glow filter on the src image, which is INT_ARGB_PRE. Each channel is brightened up to the alpha, which
+	 * is the brightest a premultiplied channel can be.
 	 *
 	 * @param src
 	 *            the src
@@ -170,20 +184,119 @@ public final class GraphicsUtils {
 		for (int y = 0; y < height; y++) {
 			for (int x = 0; x < width; x++) {
 				final int rgb1 = inPixels[index];
-				int r1 = rgb1 >> 16 & 0xff;
-			int g1 = rgb1 >> 8 & 0xff;
-			int b1 = rgb1 & 0xff;
+				final int a1 = rgb1 >>> 24;
+				final int r1 = Math.min(a1, (int) ((rgb1 >> 16 & 0xff) * a));
+				final int g1 = Math.min(a1, (int) ((rgb1 >> 8 & 0xff) * a));
+				final int b1 = Math.min(a1, (int) ((rgb1 & 0xff) * a));
 
-			r1 = clampPixel((int) (r1 * a));
-			g1 = clampPixel((int) (g1 * a));
-			b1 = clampPixel((int) (b1 * a));
-
-			inPixels[index] = rgb1 & 0xff000000 | r1 << 16 | g1 << 8 | b1;
-			index++;
+				inPixels[index] = rgb1 & 0xff000000 | r1 << 16 | g1 << 8 | b1;
+				index++;
 			}
 		}
 	}
 
+	/**
+	 * Blends the src pixel over the dst pixel, with src scaled by the coverage. Both pixels are INT_ARGB_PRE, so the
+	 * result needs no division, and can't overflow since no channel exceeds the alpha.
+	 *
+	 * @param dst
+	 *            the pixel underneath
+	 * @param src
+	 *            the pixel on top
+	 * @param coverage
+	 *            how much of src is drawn, between 0 and 255
+	 * @return the blended pixel
+	 */
+	public static int blendOver(final int dst, final int src, final int coverage) {
+		final int scaled = scale(src, coverage);
+		// dst shows through the part src doesn't cover
+		return scaled + scale(dst, 255 - (scaled >>> 24));
+	}
+
+	/**
+	 * Adds the src pixel to the dst pixel, with src scaled by the coverage, so overlapping lights add up. Each channel
+	 * is summed and saturates at 255, which is the Porter-Duff plus operator. Both pixels are INT_ARGB_PRE.
+	 *
+	 * @param dst
+	 *            the pixel underneath
+	 * @param src
+	 *            the pixel to add
+	 * @param coverage
+	 *            how much of src is added, between 0 and 255
+	 * @return the brighter pixel
+	 */
+	public static int blendAdd(final int dst, final int src, final int coverage) {
+		final int scaled = scale(src, coverage);
+		// two channels per int, each in 16 bits whose 9th bit is set when the sum overflows
+		int rb = (dst & 0xff00ff) + (scaled & 0xff00ff);
+		int ag = (dst >>> 8 & 0xff00ff) + (scaled >>> 8 & 0xff00ff);
+		final int rbOverflow = rb & 0x1000100;
+		final int agOverflow = ag & 0x1000100;
+		rb = (rb | rbOverflow - (rbOverflow >>> 8)) & 0xff00ff;
+		ag = (ag | agOverflow - (agOverflow >>> 8)) & 0xff00ff;
+		return ag << 8 | rb;
+	}
+
+	/**
+	 * Draws a light's src pixel onto the dst pixel of a lightmap, added when {@link Constants#ADDITIVE_LIGHTS} is on and
+	 * blended over otherwise. Both pixels are INT_ARGB_PRE.
+	 */
+	public static int blendLight(final int dst, final int src, final int coverage) {
+		return Constants.ADDITIVE_LIGHTS ? blendAdd(dst, src, coverage) : blendOver(dst, src, coverage);
+	}
+
+	/**
+	 * Adds light to an INT_ARGB_PRE pixel. The alpha of the pixel is raised as needed to hold the brighter color.
+	 *
+	 * @param dst
+	 *            the pixel to add to
+	 * @param r
+	 *            the premultiplied red to add
+	 * @param g
+	 *            the premultiplied green to add
+	 * @param b
+	 *            the premultiplied blue to add
+	 * @return the brighter pixel
+	 */
+	public static int addLight(final int dst, final int r, final int g, final int b) {
+		final int pr = Math.min(255, (dst >> 16 & 0xff) + r);
+		final int pg = Math.min(255, (dst >> 8 & 0xff) + g);
+		final int pb = Math.min(255, (dst & 0xff) + b);
+		final int outAlpha = Math.max(dst >>> 24, Math.max(pr, Math.max(pg, pb)));
+		return outAlpha << 24 | pr << 16 | pg << 8 | pb;
+	}
+
+	/**
+	 * Returns the pixel with all four channels multiplied by factor / 255, rounded down like {@link #div255}. Scales
+	 * two channels with each multiplication, which is exact since no product overflows its 16 bits.
+	 *
+	 * @param factor
+	 *            between 0 and 255
+	 */
+	public static int scale(final int pixel, final int factor) {
+		final int rb = (pixel & 0xff00ff) * factor;
+		final int ag = (pixel >>> 8 & 0xff00ff) * factor;
+		return rb + 0x10001 + (rb >>> 8 & 0xff00ff) >>> 8 & 0xff00ff | ag + 0x10001 + (ag >>> 8 & 0xff00ff) & 0xff00ff00;
+	}
+
+	/** Turns an INT_ARGB pixel into an INT_ARGB_PRE one. */
+	public static int premultiply(final int argb) {
+		final int alpha = argb >>> 24;
+		return alpha << 24 | scale(argb, alpha) & 0xffffff;
+	}
+
+	/** Turns an INT_ARGB_PRE pixel into an INT_ARGB one. */
+	public static int unpremultiply(final int pre) {
+		final int alpha = pre >>> 24;
+		final float factor = UNPREMULTIPLY[alpha];
+		return alpha << 24 | (int) ((pre >> 16 & 0xff) * factor) << 16 | (int) ((pre >> 8 & 0xff) * factor) << 8 | (int) ((pre & 0xff) * factor);
+	}
+
+	/** Returns x / 255 rounded down, for x from 0 to 255 * 255, without dividing. */
+	public static int div255(final int x) {
+		return x + 1 + (x >> 8) >> 8;
+	}
+
 	/**
 	 * Clamps an integer between 0 and 255.
 	 *